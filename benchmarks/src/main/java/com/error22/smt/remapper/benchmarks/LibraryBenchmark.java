@@ -0,0 +1,69 @@
+package com.error22.smt.remapper.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.error22.smt.remapper.SMRemapper;
+
+/**
+ * Loading a generated library jar. The thread count only matters for
+ * loadLibs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LibraryBenchmark {
+	@Param({ "1000", "10000" })
+	public int classes;
+
+	@Param({ "1", "4" })
+	public int threads;
+
+	private File dir, library;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		dir = Synthetic.createTempDir();
+		library = new File(dir, "library.jar");
+		Synthetic.writeLibrary(library, classes, 8, 8);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Synthetic.delete(dir);
+	}
+
+	@Benchmark
+	public SMRemapper loadLib() throws Exception {
+		SMRemapper remapper = new SMRemapper(Synthetic.NO_LOG);
+		remapper.loadLib(library);
+		return remapper;
+	}
+
+	@Benchmark
+	public SMRemapper loadLibs() throws IOException {
+		SMRemapper remapper = new SMRemapper(Synthetic.NO_LOG);
+		remapper.setThreads(threads);
+		remapper.loadLibs(Collections.singletonList(library));
+		return remapper;
+	}
+}
@@ -0,0 +1,102 @@
+package com.error22.smt.remapper.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.error22.smt.remapper.SMRemapper;
+
+/**
+ * The lookups done for every reference while remapping. Each call uses the
+ * next of a fixed set of names, hierarchy lookups are answered from the
+ * resolution cache once they have been seen.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark {
+	private static final int CLASSES = 2048, NAMES = 1024;
+	private static final String METHOD_DESC = "(Ljava/lang/Object;[I)V";
+
+	@Param({ "2", "16" })
+	public int depth;
+
+	private SMRemapper remapper;
+	private String[] nested;
+	// The last class of a chain, so finding their methods walks the whole chain
+	private String[] owners;
+	private String[] descs;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		File dir = Synthetic.createTempDir();
+		try {
+			File mapping = new File(dir, "synthetic.smtmap");
+			File library = new File(dir, "library.jar");
+			Synthetic.writeMapping(mapping, CLASSES, 4, depth);
+			Synthetic.writeLibrary(library, CLASSES, 4, depth);
+
+			remapper = new SMRemapper(Synthetic.NO_LOG);
+			remapper.loadMapping(mapping, false);
+			remapper.loadLib(library);
+		} finally {
+			Synthetic.delete(dir);
+		}
+
+		nested = new String[NAMES];
+		owners = new String[NAMES];
+		descs = new String[NAMES];
+		for (int i = 0; i < NAMES; i++) {
+			// Only the outer class is mapped, the classes inside it are found through it
+			nested[i] = Synthetic.className(i) + "$" + (i % 7) + "$" + (i % 3);
+			owners[i] = Synthetic.target(i, CLASSES, depth);
+			descs[i] = "(L" + Synthetic.className(i) + ";IL" + nested[i] + ";)L" + owners[i] + ";";
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		remapper.reset();
+	}
+
+	private int nextIndex() {
+		return next++ & (NAMES - 1);
+	}
+
+	@Benchmark
+	public String mapNested() {
+		return remapper.map(nested[nextIndex()]);
+	}
+
+	@Benchmark
+	public String mapMethodDesc() {
+		return remapper.mapMethodDesc(descs[nextIndex()]);
+	}
+
+	@Benchmark
+	public String mapMethodName() {
+		return remapper.mapMethodName(owners[nextIndex()], "m1", METHOD_DESC, -1, true);
+	}
+
+	@Benchmark
+	public String mapMethodNameUnmapped() {
+		return remapper.mapMethodName(owners[nextIndex()], "missing", METHOD_DESC, -1, true);
+	}
+}
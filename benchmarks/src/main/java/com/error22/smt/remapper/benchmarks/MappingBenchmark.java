@@ -0,0 +1,68 @@
+package com.error22.smt.remapper.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.error22.smt.remapper.SMRemapper;
+
+/**
+ * Loading a synthetic AstralMap file, parsed and from its compiled form.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappingBenchmark {
+	@Param({ "1000", "10000" })
+	public int classes;
+
+	@Param({ "4" })
+	public int members;
+
+	private File dir, mapping, compiled;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		dir = Synthetic.createTempDir();
+		mapping = new File(dir, "synthetic.smtmap");
+		compiled = new File(dir, "synthetic.smtc");
+		Synthetic.writeMapping(mapping, classes, members, 4);
+		new SMRemapper(Synthetic.NO_LOG).compileMapping(mapping, compiled);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Synthetic.delete(dir);
+	}
+
+	@Benchmark
+	public SMRemapper loadMapping() throws IOException {
+		SMRemapper remapper = new SMRemapper(Synthetic.NO_LOG);
+		remapper.loadMapping(mapping, false);
+		return remapper;
+	}
+
+	@Benchmark
+	public SMRemapper loadCompiledMapping() throws IOException {
+		SMRemapper remapper = new SMRemapper(Synthetic.NO_LOG);
+		remapper.loadMapping(mapping, compiled, false);
+		return remapper;
+	}
+}
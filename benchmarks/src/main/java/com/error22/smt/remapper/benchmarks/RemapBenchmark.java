@@ -0,0 +1,70 @@
+package com.error22.smt.remapper.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.error22.smt.remapper.SMRemapper;
+
+/**
+ * Remapping a generated jar from start to finish, with the mappings already
+ * loaded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RemapBenchmark {
+	@Param({ "1000", "5000" })
+	public int classes;
+
+	@Param({ "1", "4" })
+	public int threads;
+
+	@Param({ "false", "true" })
+	public boolean poolRewrite;
+
+	private File dir, input, output;
+	private SMRemapper remapper;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		dir = Synthetic.createTempDir();
+		File mapping = new File(dir, "synthetic.smtmap");
+		input = new File(dir, "input.jar");
+		output = new File(dir, "output.jar");
+		Synthetic.writeMapping(mapping, classes, 4, 8);
+		Synthetic.writeInput(input, classes, 4, 8);
+
+		remapper = new SMRemapper(Synthetic.NO_LOG);
+		remapper.setThreads(threads);
+		remapper.setPoolRewrite(poolRewrite, false);
+		remapper.loadMapping(mapping, false);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Synthetic.delete(dir);
+	}
+
+	@Benchmark
+	public File remap() throws Exception {
+		remapper.remap(input, output);
+		return output;
+	}
+}
@@ -0,0 +1,171 @@
+package com.error22.smt.remapper.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import com.error22.smt.remapper.ILog;
+
+/**
+ * Generates obfuscated looking jars and mappings for the benchmarks. Classes
+ * are named c0, c1... in the default package like StarMade's, and form
+ * inheritance chains of a given depth: every class extends the one before it
+ * unless its index is a multiple of the depth. The methods are only declared
+ * by the first class of each chain, every class has fields typed as the last
+ * class of the next chain and calls the methods through them, so finding
+ * their new names has to walk up the whole chain.
+ */
+final class Synthetic {
+	static final ILog NO_LOG = new ILog() {
+		@Override
+		public void log(String text) {
+		}
+	};
+
+	private Synthetic() {
+	}
+
+	static File createTempDir() throws IOException {
+		return Files.createTempDirectory("smremapper-bench").toFile();
+	}
+
+	static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	static String className(int index) {
+		return "c" + index;
+	}
+
+	static String superName(int index, int depth) {
+		return index % depth == 0 ? "java/lang/Object" : className(index - 1);
+	}
+
+	/**
+	 * @return The last class in the chain after the one holding the class
+	 */
+	static String target(int index, int classes, int depth) {
+		int start = (index / depth + 1) * depth;
+		if (start >= classes) {
+			start = 0;
+		}
+		return className(Math.min(start + depth - 1, classes - 1));
+	}
+
+	/**
+	 * Writes an AstralMap file renaming every class and member, with an
+	 * inner class for each
+	 */
+	static void writeMapping(File file, int classes, int members, int depth) throws IOException {
+		try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+			for (int i = 0; i < classes; i++) {
+				out.write(className(i) + " -> com.example.synthetic.Class" + i + " {\n");
+				for (int m = 0; m < members; m++) {
+					out.write("    " + target(i, classes, depth) + " f" + m + " -> field" + m + ";\n");
+					if (i % depth == 0) {
+						out.write("    void m" + m + " -> method" + m + "(java.lang.Object, int[]);\n");
+					}
+				}
+				out.write("    a -> Inner {\n");
+				out.write("        int f0 -> value;\n");
+				out.write("    }\n");
+				out.write("}\n");
+			}
+		}
+	}
+
+	/**
+	 * Writes a jar of classes that only have declarations, like a library
+	 */
+	static void writeLibrary(File file, int classes, int members, int depth) throws IOException {
+		writeJar(file, classes, members, depth, false);
+	}
+
+	/**
+	 * Writes a jar of classes with code using the other classes, like the jar
+	 * being remapped
+	 */
+	static void writeInput(File file, int classes, int members, int depth) throws IOException {
+		writeJar(file, classes, members, depth, true);
+	}
+
+	private static void writeJar(File file, int classes, int members, int depth, boolean code) throws IOException {
+		try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+			for (int i = 0; i < classes; i++) {
+				out.putNextEntry(new JarEntry(className(i) + ".class"));
+				out.write(generate(i, classes, members, depth, code));
+			}
+			out.putNextEntry(new JarEntry("resources/readme.txt"));
+			out.write("Generated for the SMRemapper benchmarks\n".getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private static byte[] generate(int index, int classes, int members, int depth, boolean code) {
+		String name = className(index);
+		String target = target(index, classes, depth);
+		String targetDesc = "L" + target + ";";
+		String methodDesc = "(Ljava/lang/Object;[I)V";
+
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, superName(index, depth), null);
+		cw.visitSource(name + ".java", null);
+
+		for (int m = 0; m < members; m++) {
+			cw.visitField(Opcodes.ACC_PUBLIC, "f" + m, targetDesc, null, null).visitEnd();
+		}
+
+		MethodVisitor init = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+		init.visitCode();
+		init.visitVarInsn(Opcodes.ALOAD, 0);
+		init.visitMethodInsn(Opcodes.INVOKESPECIAL, superName(index, depth), "<init>", "()V", false);
+		init.visitInsn(Opcodes.RETURN);
+		init.visitMaxs(0, 0);
+		init.visitEnd();
+
+		for (int m = 0; index % depth == 0 && m < members; m++) {
+			int access = code ? Opcodes.ACC_PUBLIC : Opcodes.ACC_PUBLIC | Opcodes.ACC_NATIVE;
+			MethodVisitor mv = cw.visitMethod(access, "m" + m, methodDesc, null, null);
+			if (code) {
+				mv.visitCode();
+				mv.visitInsn(Opcodes.RETURN);
+				mv.visitMaxs(0, 0);
+			}
+			mv.visitEnd();
+		}
+
+		if (code) {
+			// this.fN.mN(arg, array) for every member
+			MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "run", methodDesc, null, null);
+			mv.visitCode();
+			for (int m = 0; m < members; m++) {
+				mv.visitVarInsn(Opcodes.ALOAD, 0);
+				mv.visitFieldInsn(Opcodes.GETFIELD, name, "f" + m, targetDesc);
+				mv.visitVarInsn(Opcodes.ALOAD, 1);
+				mv.visitVarInsn(Opcodes.ALOAD, 2);
+				mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, target, "m" + m, methodDesc, false);
+			}
+			mv.visitInsn(Opcodes.RETURN);
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+		}
+
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+}
@@ -0,0 +1,107 @@
+package com.error22.smt.remapper;
+
+import java.util.Map.Entry;
+
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
+
+/**
+ * Keeps the mappings in Guava BiMaps, this is the default store.
+ */
+final class BiMapStore implements MappingStore {
+	private static final ThreadLocal<StringTriple> PROBE = new ThreadLocal<StringTriple>() {
+		@Override
+		protected StringTriple initialValue() {
+			return new StringTriple();
+		}
+	};
+
+	private final BiMap<String, String> classMap;
+	private final BiMap<StringTriple, StringTriple> fieldMap, methodMap;
+
+	BiMapStore() {
+		this(HashBiMap.<String, String> create(), HashBiMap.<StringTriple, StringTriple> create(),
+				HashBiMap.<StringTriple, StringTriple> create());
+	}
+
+	private BiMapStore(BiMap<String, String> classMap, BiMap<StringTriple, StringTriple> fieldMap,
+			BiMap<StringTriple, StringTriple> methodMap) {
+		this.classMap = classMap;
+		this.fieldMap = fieldMap;
+		this.methodMap = methodMap;
+	}
+
+	@Override
+	public String mapClass(String name) {
+		return classMap.get(name);
+	}
+
+	@Override
+	public String mapField(String owner, String name, String desc) {
+		StringTriple mapped = fieldMap.get(PROBE.get().set(owner, name, desc));
+		return mapped != null ? mapped.getName() : null;
+	}
+
+	@Override
+	public String mapMethod(String owner, String name, String desc) {
+		StringTriple mapped = methodMap.get(PROBE.get().set(owner, name, desc));
+		return mapped != null ? mapped.getName() : null;
+	}
+
+	@Override
+	public void putClass(String oldName, String newName) {
+		classMap.put(oldName, newName);
+	}
+
+	@Override
+	public void putField(StringTriple oldField, StringTriple newField) {
+		fieldMap.put(oldField, newField);
+	}
+
+	@Override
+	public void putMethod(StringTriple oldMethod, StringTriple newMethod) {
+		methodMap.put(oldMethod, newMethod);
+	}
+
+	@Override
+	public int classCount() {
+		return classMap.size();
+	}
+
+	@Override
+	public int fieldCount() {
+		return fieldMap.size();
+	}
+
+	@Override
+	public int methodCount() {
+		return methodMap.size();
+	}
+
+	@Override
+	public Iterable<Entry<String, String>> classes() {
+		return classMap.entrySet();
+	}
+
+	@Override
+	public Iterable<Entry<StringTriple, StringTriple>> fields() {
+		return fieldMap.entrySet();
+	}
+
+	@Override
+	public Iterable<Entry<StringTriple, StringTriple>> methods() {
+		return methodMap.entrySet();
+	}
+
+	@Override
+	public MappingStore inverse() {
+		return new BiMapStore(classMap.inverse(), fieldMap.inverse(), methodMap.inverse());
+	}
+
+	@Override
+	public void clear() {
+		classMap.clear();
+		fieldMap.clear();
+		methodMap.clear();
+	}
+}
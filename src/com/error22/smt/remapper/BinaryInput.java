@@ -0,0 +1,65 @@
+package com.error22.smt.remapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Reads the body written by {@link BinaryOutput} from a file read into memory.
+ */
+final class BinaryInput {
+	private final ByteBuffer buffer;
+	private String[] strings;
+
+	BinaryInput(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Reads a whole file onto the heap. It is not memory mapped, a mapping is
+	 * only released once the buffer is garbage collected and until then the
+	 * file cannot be replaced on Windows
+	 */
+	static ByteBuffer read(File file) throws IOException {
+		return ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+	}
+
+	ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Reads the string table, must be called once the header has been read
+	 */
+	void readStrings() {
+		strings = new String[readVarInt()];
+		for (int i = 0; i < strings.length; i++) {
+			byte[] utf = new byte[readVarInt()];
+			buffer.get(utf);
+			strings[i] = new String(utf, StandardCharsets.UTF_8);
+		}
+	}
+
+	int readVarInt() {
+		int value = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+	}
+
+	byte[] readBytes() {
+		byte[] value = new byte[readVarInt()];
+		buffer.get(value);
+		return value;
+	}
+
+	String readString() {
+		return strings[readVarInt()];
+	}
+}
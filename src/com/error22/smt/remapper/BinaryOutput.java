@@ -0,0 +1,60 @@
+package com.error22.smt.remapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds the body of the compact binary files SMRemapper writes. Every
+ * distinct string is stored once in a table at the start, records refer to
+ * them by index and all numbers are written as unsigned varints.
+ */
+final class BinaryOutput {
+	private final Map<String, Integer> stringIds = new HashMap<>();
+	private final ByteArrayOutputStream strings = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream records = new ByteArrayOutputStream();
+
+	void writeVarInt(int value) {
+		writeVarInt(records, value);
+	}
+
+	void writeBytes(byte[] value) {
+		writeVarInt(value.length);
+		records.write(value, 0, value.length);
+	}
+
+	void writeString(String value) {
+		Integer id = stringIds.get(value);
+		if (id == null) {
+			id = stringIds.size();
+			stringIds.put(value, id);
+
+			byte[] utf = value.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(strings, utf.length);
+			strings.write(utf, 0, utf.length);
+		}
+		writeVarInt(id);
+	}
+
+	/**
+	 * Writes the string table followed by the records
+	 */
+	void writeTo(DataOutputStream out) throws IOException {
+		ByteArrayOutputStream count = new ByteArrayOutputStream(5);
+		writeVarInt(count, stringIds.size());
+		count.writeTo(out);
+		strings.writeTo(out);
+		records.writeTo(out);
+	}
+
+	private static void writeVarInt(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+}
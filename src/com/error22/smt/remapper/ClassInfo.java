@@ -0,0 +1,329 @@
+package com.error22.smt.remapper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import com.google.common.collect.Interner;
+
+/**
+ * The parts of a class the remapper needs for inheritance lookups: the super
+ * types and the name, desc and access of every member. This is all that is
+ * kept for library classes, so it stays as small as possible.
+ */
+public final class ClassInfo {
+	private static final String[] NO_STRINGS = new String[0];
+	private static final int[] NO_INTS = new int[0];
+
+	private final String name, superName;
+	private final String[] interfaces;
+	private final String[] fieldNames, fieldDescs;
+	private final int[] fieldAccess;
+	private final String[] methodNames, methodDescs;
+	private final int[] methodAccess;
+	// Open addressing tables holding member index + 1, so access lookups do not scan every member
+	private final int[] fieldIndex, methodIndex;
+
+	ClassInfo(String name, String superName, String[] interfaces, String[] fieldNames, String[] fieldDescs,
+			int[] fieldAccess, String[] methodNames, String[] methodDescs, int[] methodAccess) {
+		this.name = name;
+		this.superName = superName;
+		this.interfaces = interfaces;
+		this.fieldNames = fieldNames;
+		this.fieldDescs = fieldDescs;
+		this.fieldAccess = fieldAccess;
+		this.methodNames = methodNames;
+		this.methodDescs = methodDescs;
+		this.methodAccess = methodAccess;
+		this.fieldIndex = buildIndex(fieldNames, fieldDescs);
+		this.methodIndex = buildIndex(methodNames, methodDescs);
+	}
+
+	/**
+	 * Reads the class without its code, debug info or frames
+	 *
+	 * @param reader
+	 *            The class to read
+	 * @param interner
+	 *            Used to share names and descs between classes
+	 * @return The class info
+	 */
+	public static ClassInfo read(ClassReader reader, Interner<String> interner) {
+		Builder builder = new Builder(interner);
+		reader.accept(builder, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+		return builder.build();
+	}
+
+	/**
+	 * Creates the class info of a class that has already been fully read
+	 *
+	 * @param node
+	 *            The class to use
+	 * @param interner
+	 *            Used to share names and descs between classes
+	 * @return The class info
+	 */
+	public static ClassInfo of(ClassNode node, Interner<String> interner) {
+		Builder builder = new Builder(interner);
+		builder.visit(node.version, node.access, node.name, node.signature, node.superName,
+				node.interfaces.toArray(new String[node.interfaces.size()]));
+		for (FieldNode f : node.fields) {
+			builder.visitField(f.access, f.name, f.desc, f.signature, f.value);
+		}
+		for (MethodNode m : node.methods) {
+			builder.visitMethod(m.access, m.name, m.desc, m.signature, null);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Reads a class info stored by write(BinaryOutput)
+	 *
+	 * @param in
+	 *            The input positioned at the class
+	 * @param interner
+	 *            Used to share names and descs between classes
+	 * @return The class info
+	 */
+	static ClassInfo read(BinaryInput in, Interner<String> interner) {
+		String name = interner.intern(in.readString());
+		String superName = in.readVarInt() != 0 ? interner.intern(in.readString()) : null;
+		String[] interfaces = readStrings(in, interner, in.readVarInt());
+
+		int fields = in.readVarInt();
+		String[] fieldNames = readStrings(in, interner, fields), fieldDescs = readStrings(in, interner, fields);
+		int[] fieldAccess = readInts(in, fields);
+
+		int methods = in.readVarInt();
+		String[] methodNames = readStrings(in, interner, methods), methodDescs = readStrings(in, interner, methods);
+		int[] methodAccess = readInts(in, methods);
+
+		return new ClassInfo(name, superName, interfaces, fieldNames, fieldDescs, fieldAccess, methodNames,
+				methodDescs, methodAccess);
+	}
+
+	private static String[] readStrings(BinaryInput in, Interner<String> interner, int count) {
+		if (count == 0) {
+			return NO_STRINGS;
+		}
+		String[] strings = new String[count];
+		for (int i = 0; i < count; i++) {
+			strings[i] = interner.intern(in.readString());
+		}
+		return strings;
+	}
+
+	private static int[] readInts(BinaryInput in, int count) {
+		if (count == 0) {
+			return NO_INTS;
+		}
+		int[] ints = new int[count];
+		for (int i = 0; i < count; i++) {
+			ints[i] = in.readVarInt();
+		}
+		return ints;
+	}
+
+	/**
+	 * Stores the class info so it can be read back with read(BinaryInput,
+	 * Interner)
+	 */
+	void write(BinaryOutput out) {
+		out.writeString(name);
+		out.writeVarInt(superName != null ? 1 : 0);
+		if (superName != null) {
+			out.writeString(superName);
+		}
+		out.writeVarInt(interfaces.length);
+		writeStrings(out, interfaces);
+
+		out.writeVarInt(fieldNames.length);
+		writeStrings(out, fieldNames);
+		writeStrings(out, fieldDescs);
+		writeInts(out, fieldAccess);
+
+		out.writeVarInt(methodNames.length);
+		writeStrings(out, methodNames);
+		writeStrings(out, methodDescs);
+		writeInts(out, methodAccess);
+	}
+
+	private static void writeStrings(BinaryOutput out, String[] strings) {
+		for (String string : strings) {
+			out.writeString(string);
+		}
+	}
+
+	private static void writeInts(BinaryOutput out, int[] ints) {
+		for (int i : ints) {
+			out.writeVarInt(i);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getSuperName() {
+		return superName;
+	}
+
+	public String[] getInterfaces() {
+		return interfaces;
+	}
+
+	/**
+	 * @return The names of the declared methods, in the same order as
+	 *         getMethodDescs()
+	 */
+	public String[] getMethodNames() {
+		return methodNames;
+	}
+
+	public String[] getMethodDescs() {
+		return methodDescs;
+	}
+
+	/**
+	 * Finds the access of a field declared by this class
+	 *
+	 * @return The access flags, or -1 if the class does not declare the field
+	 */
+	public int getFieldAccess(String name, String desc) {
+		return findAccess(fieldIndex, fieldNames, fieldDescs, fieldAccess, name, desc);
+	}
+
+	/**
+	 * Finds the access of a method declared by this class
+	 *
+	 * @return The access flags, or -1 if the class does not declare the method
+	 */
+	public int getMethodAccess(String name, String desc) {
+		return findAccess(methodIndex, methodNames, methodDescs, methodAccess, name, desc);
+	}
+
+	private static int findAccess(int[] index, String[] names, String[] descs, int[] access, String name,
+			String desc) {
+		if (index.length == 0) {
+			return -1;
+		}
+
+		int mask = index.length - 1;
+		for (int slot = hash(name, desc) & mask;; slot = (slot + 1) & mask) {
+			int i = index[slot] - 1;
+			if (i < 0) {
+				return -1;
+			}
+			if (names[i].equals(name) && descs[i].equals(desc)) {
+				return access[i];
+			}
+		}
+	}
+
+	private static int[] buildIndex(String[] names, String[] descs) {
+		if (names.length == 0) {
+			return NO_INTS;
+		}
+
+		// At most half full, so a probe always ends on an empty slot
+		int[] index = new int[Integer.highestOneBit(names.length) << 2];
+		int mask = index.length - 1;
+		for (int i = 0; i < names.length; i++) {
+			int slot = hash(names[i], descs[i]) & mask;
+			while (index[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			index[slot] = i + 1;
+		}
+		return index;
+	}
+
+	private static int hash(String name, String desc) {
+		int h = name.hashCode() * 31 + desc.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	@Override
+	public String toString() {
+		return "ClassInfo [name=" + name + ", fields=" + fieldNames.length + ", methods=" + methodNames.length + "]";
+	}
+
+	private static class Builder extends ClassVisitor {
+		private final Interner<String> interner;
+		private String name, superName;
+		private String[] interfaces;
+		private List<String> fieldNames, fieldDescs, methodNames, methodDescs;
+		private List<Integer> fieldAccess, methodAccess;
+
+		Builder(Interner<String> interner) {
+			super(Opcodes.ASM5);
+			this.interner = interner;
+			fieldNames = new ArrayList<>();
+			fieldDescs = new ArrayList<>();
+			fieldAccess = new ArrayList<>();
+			methodNames = new ArrayList<>();
+			methodDescs = new ArrayList<>();
+			methodAccess = new ArrayList<>();
+		}
+
+		@Override
+		public void visit(int version, int access, String name, String signature, String superName,
+				String[] interfaces) {
+			this.name = interner.intern(name);
+			this.superName = superName != null ? interner.intern(superName) : null;
+			if (interfaces == null || interfaces.length == 0) {
+				this.interfaces = NO_STRINGS;
+			} else {
+				this.interfaces = new String[interfaces.length];
+				for (int i = 0; i < interfaces.length; i++) {
+					this.interfaces[i] = interner.intern(interfaces[i]);
+				}
+			}
+		}
+
+		@Override
+		public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+			fieldNames.add(interner.intern(name));
+			fieldDescs.add(interner.intern(desc));
+			fieldAccess.add(access);
+			return null;
+		}
+
+		@Override
+		public MethodVisitor visitMethod(int access, String name, String desc, String signature,
+				String[] exceptions) {
+			methodNames.add(interner.intern(name));
+			methodDescs.add(interner.intern(desc));
+			methodAccess.add(access);
+			return null;
+		}
+
+		ClassInfo build() {
+			return new ClassInfo(name, superName, interfaces, toArray(fieldNames), toArray(fieldDescs),
+					toIntArray(fieldAccess), toArray(methodNames), toArray(methodDescs), toIntArray(methodAccess));
+		}
+
+		private static String[] toArray(List<String> list) {
+			return list.isEmpty() ? NO_STRINGS : list.toArray(new String[list.size()]);
+		}
+
+		private static int[] toIntArray(List<Integer> list) {
+			if (list.isEmpty()) {
+				return NO_INTS;
+			}
+			int[] array = new int[list.size()];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = list.get(i);
+			}
+			return array;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.error22.smt.remapper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map.Entry;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * The compiled form of a mapping file, holding the resolved class, field and
+ * method maps so they can be loaded without running the parser. The header
+ * stores a hash of the mapping it was compiled from so a stale file can be
+ * detected.
+ */
+final class CompiledMapping {
+	private static final int MAGIC = 0x534D5443; // SMTC
+	private static final int VERSION = 1;
+	private static final int HASH_LENGTH = 20;
+
+	private CompiledMapping() {
+	}
+
+	/**
+	 * Hashes the mapping a compiled file is built from
+	 */
+	static byte[] hash(File mapping) throws IOException {
+		return Hashing.sha1().hashBytes(Files.readAllBytes(mapping.toPath())).asBytes();
+	}
+
+	static void write(File compiled, byte[] hash, MappingStore mappings) throws IOException {
+		BinaryOutput body = new BinaryOutput();
+
+		body.writeVarInt(mappings.classCount());
+		for (Entry<String, String> e : mappings.classes()) {
+			body.writeString(e.getKey());
+			body.writeString(e.getValue());
+		}
+		writeMembers(body, mappings.fieldCount(), mappings.fields());
+		writeMembers(body, mappings.methodCount(), mappings.methods());
+
+		// Written next to the compiled file and moved over it, a failed write leaves the old one intact
+		File temp = new File(compiled.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.write(hash);
+			body.writeTo(out);
+		}
+		Files.move(temp.toPath(), compiled.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static void writeMembers(BinaryOutput body, int count,
+			Iterable<Entry<StringTriple, StringTriple>> members) {
+		body.writeVarInt(count);
+		for (Entry<StringTriple, StringTriple> e : members) {
+			writeTriple(body, e.getKey());
+			writeTriple(body, e.getValue());
+		}
+	}
+
+	private static void writeTriple(BinaryOutput body, StringTriple triple) {
+		body.writeString(triple.getCls());
+		body.writeString(triple.getName());
+		body.writeString(triple.getSig());
+	}
+
+	/**
+	 * Checks if a compiled file was built from the current contents of a
+	 * mapping
+	 *
+	 * @return False if the file is missing, from another version or was
+	 *         compiled from a different mapping
+	 */
+	static boolean isCurrent(File compiled, byte[] hash) throws IOException {
+		if (!compiled.isFile()) {
+			return false;
+		}
+
+		// Only the header is read, a stale file is written over straight after
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(compiled)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return false;
+			}
+
+			byte[] stored = new byte[HASH_LENGTH];
+			in.readFully(stored);
+			return Arrays.equals(stored, hash);
+		} catch (EOFException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Adds everything in a compiled file to the given maps, overwriting
+	 * existing rules like loading the mapping would
+	 */
+	static void read(File compiled, MappingStore mappings) throws IOException {
+		BinaryInput in = new BinaryInput(BinaryInput.read(compiled));
+		ByteBuffer buffer = in.getBuffer();
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			throw new IOException("Not a compiled mapping: " + compiled.getPath());
+		}
+		buffer.position(buffer.position() + HASH_LENGTH);
+		in.readStrings();
+
+		for (int i = in.readVarInt(); i > 0; i--) {
+			mappings.putClass(in.readString(), in.readString());
+		}
+		for (int i = in.readVarInt(); i > 0; i--) {
+			mappings.putField(readTriple(in), readTriple(in));
+		}
+		for (int i = in.readVarInt(); i > 0; i--) {
+			mappings.putMethod(readTriple(in), readTriple(in));
+		}
+	}
+
+	private static StringTriple readTriple(BinaryInput in) {
+		return new StringTriple(in.readString(), in.readString(), in.readString());
+	}
+}
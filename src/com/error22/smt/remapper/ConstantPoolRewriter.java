@@ -0,0 +1,479 @@
+package com.error22.smt.remapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.objectweb.asm.ClassReader;
+
+/**
+ * Remaps a class by rewriting its constant pool instead of reading it into a
+ * tree and writing it out again. Every entry keeps its index, so code,
+ * exception tables and stack map frames are copied as they are. Class,
+ * member reference, method type and invokedynamic entries are pointed at the
+ * new names, new UTF8 and NameAndType entries are added to the end of the
+ * pool. Declared members and the attributes naming types are rewritten the
+ * same way RemapperClassAdapter would.
+ *
+ * Annotations, unknown attributes and method handles that the ASM path would
+ * map differently from their reference are not handled, rewrite(...) returns
+ * null for those classes.
+ */
+final class ConstantPoolRewriter {
+	private static final int UTF8 = 1, CLASS = 7, FIELD = 9, METHOD = 10, INTERFACE_METHOD = 11, NAME_TYPE = 12,
+			HANDLE = 15, METHOD_TYPE = 16, INVOKE_DYNAMIC = 18;
+	// Method handle kinds up to this one refer to fields
+	private static final int LAST_FIELD_HANDLE = 4;
+	private static final int MAX_POOL = 0xFFFF;
+	// The pool starts after the magic, the version and the pool count
+	private static final int POOL_START = 10;
+
+	// What an attribute list belongs to
+	private enum Owner {
+		CLASS, FIELD, METHOD, CODE
+	}
+
+	private final ClassReader reader;
+	private final byte[] b;
+	private final SMRemapper remapper;
+	private final char[] buf;
+	// A copy of the original pool that is patched in place, no entry changes its size
+	private final byte[] pool;
+	private final ByteArrayOutputStream added = new ByteArrayOutputStream();
+	private final DataOutputStream addedOut = new DataOutputStream(added);
+	private final Map<String, Integer> utf8Entries = new HashMap<>();
+	// Keyed by name index << 16 | desc index
+	private final Map<Integer, Integer> nameTypeEntries = new HashMap<>();
+	private int count;
+
+	private ConstantPoolRewriter(ClassReader reader, SMRemapper remapper) {
+		this.reader = reader;
+		this.b = reader.b;
+		this.remapper = remapper;
+		this.buf = new char[reader.getMaxStringLength()];
+		this.pool = new byte[reader.header - POOL_START];
+		System.arraycopy(b, POOL_START, pool, 0, pool.length);
+		this.count = reader.getItemCount();
+	}
+
+	/**
+	 * Remaps a class by rewriting its constant pool
+	 *
+	 * @param reader
+	 *            The class to remap
+	 * @param remapper
+	 *            The remapper to map every name with
+	 * @return The remapped class, or null if it has to go through the ASM
+	 *         path
+	 */
+	static byte[] rewrite(ClassReader reader, SMRemapper remapper) {
+		try {
+			return new ConstantPoolRewriter(reader, remapper).rewrite();
+		} catch (IOException e) {
+			// Only thrown for a string too long for the pool
+			return null;
+		}
+	}
+
+	private byte[] rewrite() throws IOException {
+		// Checked before anything is mapped so a class that goes through ASM is not mapped twice. Only a pool that
+		// grows past its limit or a name too long for it are found after mapping, those classes are mapped again.
+		if (!canRewrite()) {
+			return null;
+		}
+
+		for (int i = 1; i < reader.getItemCount(); i++) {
+			int offset = reader.getItem(i);
+			if (offset == 0) {
+				continue;
+			}
+			if (tag(offset) == UTF8) {
+				String text = ConstantPoolScan.readUTF8(b, offset, buf);
+				if (!utf8Entries.containsKey(text)) {
+					utf8Entries.put(text, i);
+				}
+			} else if (tag(offset) == NAME_TYPE) {
+				Integer key = (reader.readUnsignedShort(offset) << 16) | reader.readUnsignedShort(offset + 2);
+				if (!nameTypeEntries.containsKey(key)) {
+					nameTypeEntries.put(key, i);
+				}
+			}
+		}
+
+		for (int i = 1; i < reader.getItemCount(); i++) {
+			int offset = reader.getItem(i);
+			if (offset == 0) {
+				continue;
+			}
+			switch (tag(offset)) {
+			case CLASS:
+				String name = utf8(reader.readUnsignedShort(offset));
+				patch(offset, name, remapper.mapType(name));
+				break;
+			case FIELD:
+			case METHOD:
+			case INTERFACE_METHOD:
+				rewriteReference(offset);
+				break;
+			case METHOD_TYPE:
+				String desc = utf8(reader.readUnsignedShort(offset));
+				patch(offset, desc, remapper.mapMethodDesc(desc));
+				break;
+			case INVOKE_DYNAMIC:
+				int nameType = reader.getItem(reader.readUnsignedShort(offset + 2));
+				String indyName = utf8(reader.readUnsignedShort(nameType));
+				String indyDesc = utf8(reader.readUnsignedShort(nameType + 2));
+				setShort(offset + 2, nameType(remapper.mapInvokeDynamicMethodName(indyName, indyDesc),
+						remapper.mapMethodDesc(indyDesc)));
+				break;
+			}
+		}
+
+		ByteArrayOutputStream body = new ByteArrayOutputStream(b.length);
+		DataOutputStream out = new DataOutputStream(body);
+		writeBody(out);
+		if (count > MAX_POOL) {
+			return null;
+		}
+
+		ByteArrayOutputStream result = new ByteArrayOutputStream(b.length + added.size());
+		result.write(b, 0, 8);
+		result.write(count >>> 8);
+		result.write(count);
+		result.write(pool);
+		added.writeTo(result);
+		body.writeTo(result);
+		return result.toByteArray();
+	}
+
+	/**
+	 * Checks that every attribute is one that can be rewritten and that every
+	 * handle is a method handle that gets the name of its reference
+	 */
+	private boolean canRewrite() {
+		for (int i = 1; i < reader.getItemCount(); i++) {
+			int offset = reader.getItem(i);
+			if (offset != 0 && tag(offset) == HANDLE && !checkHandle(offset)) {
+				return false;
+			}
+		}
+
+		int offset = reader.header;
+		offset += 8 + reader.readUnsignedShort(offset + 6) * 2;
+		for (int pass = 0; pass < 2; pass++) {
+			int members = reader.readUnsignedShort(offset);
+			offset += 2;
+			for (int i = 0; i < members; i++) {
+				offset = checkAttributes(offset + 6, pass == 0 ? Owner.FIELD : Owner.METHOD);
+				if (offset == -1) {
+					return false;
+				}
+			}
+		}
+		return checkAttributes(offset, Owner.CLASS) != -1;
+	}
+
+	/**
+	 * @return The offset after the attributes, -1 if one of them cannot be
+	 *         rewritten
+	 */
+	private int checkAttributes(int offset, Owner owner) {
+		int attributes = reader.readUnsignedShort(offset);
+		offset += 2;
+		for (int i = 0; i < attributes; i++) {
+			String name = utf8(reader.readUnsignedShort(offset));
+			int start = offset + 6;
+			offset = start + reader.readInt(offset + 2);
+			if (!isKnown(name, owner)) {
+				return -1;
+			}
+			if (owner == Owner.METHOD && name.equals("Code")) {
+				int codeLength = reader.readInt(start + 4);
+				int exceptions = reader.readUnsignedShort(start + 8 + codeLength);
+				if (checkAttributes(start + 10 + codeLength + exceptions * 8, Owner.CODE) == -1) {
+					return -1;
+				}
+			}
+		}
+		return offset;
+	}
+
+	private static boolean isKnown(String name, Owner owner) {
+		switch (owner) {
+		case CLASS:
+			return name.equals("SourceFile") || name.equals("SourceDebugExtension") || name.equals("InnerClasses")
+					|| name.equals("EnclosingMethod") || name.equals("Signature") || name.equals("BootstrapMethods")
+					|| name.equals("Deprecated") || name.equals("Synthetic");
+		case FIELD:
+			return name.equals("ConstantValue") || name.equals("Signature") || name.equals("Deprecated")
+					|| name.equals("Synthetic");
+		case METHOD:
+			return name.equals("Code") || name.equals("Exceptions") || name.equals("Signature")
+					|| name.equals("Deprecated") || name.equals("Synthetic") || name.equals("MethodParameters");
+		default:
+			return name.equals("LineNumberTable") || name.equals("LocalVariableTable")
+					|| name.equals("LocalVariableTypeTable") || name.equals("StackMapTable");
+		}
+	}
+
+	private void rewriteReference(int offset) throws IOException {
+		int type = tag(offset);
+		String owner = utf8(reader.readUnsignedShort(reader.getItem(reader.readUnsignedShort(offset))));
+		int nameType = reader.getItem(reader.readUnsignedShort(offset + 2));
+		String name = utf8(reader.readUnsignedShort(nameType));
+		String desc = utf8(reader.readUnsignedShort(nameType + 2));
+
+		String newName, newDesc;
+		if (type == FIELD) {
+			newName = remapper.mapFieldName(owner, name, desc, remapper.getFieldAccess(owner, name, desc), true);
+			newDesc = remapper.mapDesc(desc);
+		} else {
+			newName = remapper.mapMethodName(owner, name, desc, remapper.getMethodAccess(owner, name, desc), true);
+			newDesc = remapper.mapMethodDesc(desc);
+		}
+		if (!newName.equals(name) || !newDesc.equals(desc)) {
+			setShort(offset + 2, nameType(newName, newDesc));
+		}
+	}
+
+	/**
+	 * The ASM path maps the method of a handle without its access, which can
+	 * give a different name from the one its reference gets. Both names are
+	 * only looked up here, nothing in the pool changes.
+	 *
+	 * @return If the handle would still name the right method
+	 */
+	private boolean checkHandle(int offset) {
+		int kind = b[offset] & 0xFF;
+		if (kind <= LAST_FIELD_HANDLE) {
+			return false;
+		}
+		int ref = reader.getItem(reader.readUnsignedShort(offset + 1));
+		String owner = utf8(reader.readUnsignedShort(reader.getItem(reader.readUnsignedShort(ref))));
+		int nameType = reader.getItem(reader.readUnsignedShort(ref + 2));
+		String name = utf8(reader.readUnsignedShort(nameType));
+		String desc = utf8(reader.readUnsignedShort(nameType + 2));
+		return remapper.mapMethodName(owner, name, desc).equals(
+				remapper.mapMethodName(owner, name, desc, remapper.getMethodAccess(owner, name, desc), true));
+	}
+
+	/**
+	 * Copies everything after the pool, rewriting the names of members and
+	 * the attributes that hold names
+	 */
+	private void writeBody(DataOutputStream out) throws IOException {
+		String className = reader.getClassName();
+		int offset = reader.header;
+		int interfaces = reader.readUnsignedShort(offset + 6);
+		// Access, this, super and the interfaces are all class entries
+		offset += 8 + interfaces * 2;
+		out.write(b, reader.header, offset - reader.header);
+
+		for (int pass = 0; pass < 2; pass++) {
+			boolean fields = pass == 0;
+			int members = reader.readUnsignedShort(offset);
+			out.writeShort(members);
+			offset += 2;
+			for (int i = 0; i < members; i++) {
+				int access = reader.readUnsignedShort(offset);
+				String name = utf8(reader.readUnsignedShort(offset + 2));
+				String desc = utf8(reader.readUnsignedShort(offset + 4));
+				String newName = fields ? remapper.mapFieldName(className, name, desc, access, true)
+						: remapper.mapMethodName(className, name, desc, access, true);
+				String newDesc = fields ? remapper.mapDesc(desc) : remapper.mapMethodDesc(desc);
+
+				out.writeShort(access);
+				out.writeShort(index(reader.readUnsignedShort(offset + 2), name, newName));
+				out.writeShort(index(reader.readUnsignedShort(offset + 4), desc, newDesc));
+				offset = writeAttributes(out, offset + 6, fields ? Owner.FIELD : Owner.METHOD);
+			}
+		}
+		writeAttributes(out, offset, Owner.CLASS);
+	}
+
+	/**
+	 * Copies a list of attributes, rewriting the ones that hold names
+	 *
+	 * @param offset
+	 *            The offset of the attribute count
+	 * @return The offset after the attributes
+	 */
+	private int writeAttributes(DataOutputStream out, int offset, Owner owner) throws IOException {
+		int attributes = reader.readUnsignedShort(offset);
+		offset += 2;
+
+		ByteArrayOutputStream written = new ByteArrayOutputStream();
+		DataOutputStream attributesOut = new DataOutputStream(written);
+		int kept = 0;
+		for (int i = 0; i < attributes; i++) {
+			String name = utf8(reader.readUnsignedShort(offset));
+			int length = reader.readInt(offset + 2);
+			int start = offset + 6, end = start + length;
+			offset = end;
+
+			byte[] rewritten = null;
+			if (name.equals("Signature")) {
+				String signature = utf8(reader.readUnsignedShort(start));
+				rewritten = shorts(index(reader.readUnsignedShort(start), signature,
+						remapper.mapSignature(signature, owner == Owner.FIELD)));
+			} else if (name.equals("SourceFile") || name.equals("SourceDebugExtension")) {
+				if (!remapper.shouldKeepSource()) {
+					continue;
+				}
+			} else if (name.equals("InnerClasses")) {
+				rewritten = rewriteInnerClasses(start);
+			} else if (name.equals("EnclosingMethod")) {
+				rewritten = rewriteEnclosingMethod(start);
+			} else if (name.equals("Code")) {
+				rewritten = rewriteCode(start);
+			} else if (name.equals("LocalVariableTable") || name.equals("LocalVariableTypeTable")) {
+				rewritten = rewriteLocalVariables(start, name.equals("LocalVariableTable"));
+			}
+
+			kept++;
+			attributesOut.write(b, start - 6, 2);
+			if (rewritten != null) {
+				attributesOut.writeInt(rewritten.length);
+				attributesOut.write(rewritten);
+			} else {
+				attributesOut.write(b, start - 4, length + 4);
+			}
+		}
+
+		out.writeShort(kept);
+		written.writeTo(out);
+		return offset;
+	}
+
+	private byte[] rewriteCode(int offset) throws IOException {
+		int codeLength = reader.readInt(offset + 4);
+		int exceptions = reader.readUnsignedShort(offset + 8 + codeLength);
+		// Max stack, max locals, the code and the exception table only refer to class entries
+		int attributes = offset + 10 + codeLength + exceptions * 8;
+
+		ByteArrayOutputStream code = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(code);
+		out.write(b, offset, attributes - offset);
+		writeAttributes(out, attributes, Owner.CODE);
+		return code.toByteArray();
+	}
+
+	private byte[] rewriteLocalVariables(int offset, boolean descs) throws IOException {
+		int variables = reader.readUnsignedShort(offset);
+		ByteArrayOutputStream table = new ByteArrayOutputStream(2 + variables * 10);
+		DataOutputStream out = new DataOutputStream(table);
+		out.writeShort(variables);
+		for (int i = 0, entry = offset + 2; i < variables; i++, entry += 10) {
+			// Start, length and name stay, the desc or signature is mapped
+			out.write(b, entry, 6);
+			int index = reader.readUnsignedShort(entry + 6);
+			String type = utf8(index);
+			out.writeShort(this.index(index, type,
+					descs ? remapper.mapDesc(type) : remapper.mapSignature(type, true)));
+			out.write(b, entry + 8, 2);
+		}
+		return table.toByteArray();
+	}
+
+	private byte[] rewriteInnerClasses(int offset) throws IOException {
+		int classes = reader.readUnsignedShort(offset);
+		ByteArrayOutputStream table = new ByteArrayOutputStream(2 + classes * 8);
+		DataOutputStream out = new DataOutputStream(table);
+		out.writeShort(classes);
+		for (int i = 0, entry = offset + 2; i < classes; i++, entry += 8) {
+			out.write(b, entry, 4);
+			int innerName = reader.readUnsignedShort(entry + 4);
+			if (innerName != 0) {
+				// The same as RemapperClassAdapter.visitInnerClass, the simple name is taken from the new name
+				String newName = remapper.mapType(utf8(reader.readUnsignedShort(reader.getItem(
+						reader.readUnsignedShort(entry)))));
+				String newInnerName = newName.substring(newName.lastIndexOf(newName.contains("$") ? '$' : '/') + 1);
+				innerName = index(innerName, utf8(innerName), newInnerName);
+			}
+			out.writeShort(innerName);
+			out.write(b, entry + 6, 2);
+		}
+		return table.toByteArray();
+	}
+
+	private byte[] rewriteEnclosingMethod(int offset) throws IOException {
+		int method = reader.readUnsignedShort(offset + 2);
+		if (method == 0) {
+			return null;
+		}
+
+		String owner = utf8(reader.readUnsignedShort(reader.getItem(reader.readUnsignedShort(offset))));
+		int nameType = reader.getItem(method);
+		String name = utf8(reader.readUnsignedShort(nameType));
+		String desc = utf8(reader.readUnsignedShort(nameType + 2));
+		String newName = remapper.mapMethodName(owner, name, desc, remapper.getMethodAccess(owner, name, desc), true);
+		return shorts(reader.readUnsignedShort(offset), nameType(newName, remapper.mapMethodDesc(desc)));
+	}
+
+	private int tag(int offset) {
+		return b[offset - 1];
+	}
+
+	private String utf8(int item) {
+		return ConstantPoolScan.readUTF8(b, reader.getItem(item), buf);
+	}
+
+	/**
+	 * @return The original index if the text did not change, otherwise the
+	 *         index of the new text
+	 */
+	private int index(int index, String text, String mapped) throws IOException {
+		return text.equals(mapped) ? index : utf8Index(mapped);
+	}
+
+	/**
+	 * Points the UTF8 reference of the entry at offset to the mapped text, if
+	 * it changed
+	 */
+	private void patch(int offset, String text, String mapped) throws IOException {
+		if (!text.equals(mapped)) {
+			setShort(offset, utf8Index(mapped));
+		}
+	}
+
+	private void setShort(int offset, int value) {
+		pool[offset - POOL_START] = (byte) (value >>> 8);
+		pool[offset - POOL_START + 1] = (byte) value;
+	}
+
+	private int utf8Index(String text) throws IOException {
+		Integer index = utf8Entries.get(text);
+		if (index == null) {
+			addedOut.writeByte(UTF8);
+			addedOut.writeUTF(text);
+			index = count++;
+			utf8Entries.put(text, index);
+		}
+		return index;
+	}
+
+	private int nameType(String name, String desc) throws IOException {
+		int nameIndex = utf8Index(name), descIndex = utf8Index(desc);
+		Integer key = (nameIndex << 16) | descIndex;
+		Integer index = nameTypeEntries.get(key);
+		if (index == null) {
+			addedOut.writeByte(NAME_TYPE);
+			addedOut.writeShort(nameIndex);
+			addedOut.writeShort(descIndex);
+			index = count++;
+			nameTypeEntries.put(key, index);
+		}
+		return index;
+	}
+
+	private static byte[] shorts(int... values) {
+		byte[] bytes = new byte[values.length * 2];
+		for (int i = 0; i < values.length; i++) {
+			bytes[i * 2] = (byte) (values[i] >>> 8);
+			bytes[i * 2 + 1] = (byte) values[i];
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,105 @@
+package com.error22.smt.remapper;
+
+import org.objectweb.asm.ClassReader;
+
+/**
+ * Looks through the constant pool of a class for anything the remapper would
+ * change. Every name, descriptor and signature in a class is a UTF8 entry, so
+ * a class whose UTF8 entries contain no mapped class and no mapped member
+ * name comes out of the remapper unchanged and can be copied as it is.
+ * <p>
+ * A copied class can still differ from a transformed one.
+ * RemapperClassAdapter takes the InnerClasses inner name from the part of
+ * the class name after the last $, so a local class Outer$1LocalClass
+ * keeps "LocalClass" when copied but gets "1LocalClass" when transformed.
+ * The copy is the one that matches what javac wrote.
+ */
+final class ConstantPoolScan {
+	private static final int UTF8 = 1;
+
+	private ConstantPoolScan() {
+	}
+
+	/**
+	 * Checks if remapping could change a class. This errs on the side of
+	 * remapping, a string constant that happens to look like a mapped name
+	 * is enough.
+	 *
+	 * @param reader
+	 *            The class to check
+	 * @param remapper
+	 *            The mappings and settings to check against
+	 * @return False if the class can be copied as it is
+	 */
+	static boolean needsRemapping(ClassReader reader, SMRemapper remapper) {
+		byte[] b = reader.b;
+		char[] buf = new char[reader.getMaxStringLength()];
+		boolean keepSource = remapper.shouldKeepSource();
+
+		for (int i = 1; i < reader.getItemCount(); i++) {
+			int offset = reader.getItem(i);
+			// Zero for the second slot of longs and doubles
+			if (offset == 0 || b[offset - 1] != UTF8) {
+				continue;
+			}
+
+			String text = readUTF8(b, offset, buf);
+			if (remapper.isMappedMemberName(text) || remapper.isMappedClass(text)) {
+				return true;
+			}
+			if (!keepSource && (text.equals("SourceFile") || text.equals("SourceDebugExtension"))) {
+				// The source attributes are dropped
+				return true;
+			}
+			if (text.contains(">.")) {
+				// The inner class of a generic type is only named relative to its outer class
+				return true;
+			}
+
+			// Object types in descriptors and signatures, anything starting with an L is checked
+			for (int start = text.indexOf('L'); start != -1; start = text.indexOf('L', start + 1)) {
+				int end = nameEnd(text, start + 1);
+				if (end == -1) {
+					break;
+				}
+				if (remapper.isMappedClass(text.substring(start + 1, end))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static int nameEnd(String text, int from) {
+		for (int i = from; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == ';' || c == '<') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Decodes the modified UTF-8 of a constant pool entry
+	 *
+	 * @param offset
+	 *            The offset of the entry, after its tag
+	 */
+	static String readUTF8(byte[] b, int offset, char[] buf) {
+		int length = ((b[offset] & 0xFF) << 8) | (b[offset + 1] & 0xFF);
+		int index = offset + 2, end = index + length;
+		int chars = 0;
+		while (index < end) {
+			int c = b[index++] & 0xFF;
+			if (c < 0x80) {
+				buf[chars++] = (char) c;
+			} else if (c < 0xE0) {
+				buf[chars++] = (char) (((c & 0x1F) << 6) | (b[index++] & 0x3F));
+			} else {
+				buf[chars++] = (char) (((c & 0x0F) << 12) | ((b[index++] & 0x3F) << 6) | (b[index++] & 0x3F));
+			}
+		}
+		return new String(buf, 0, chars);
+	}
+}
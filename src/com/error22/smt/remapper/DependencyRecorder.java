@@ -0,0 +1,44 @@
+package com.error22.smt.remapper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects the lookups SMRemapper answers while one class is transformed,
+ * see {@link RemapManifest}. Queries are encoded as a kind character followed
+ * by their arguments separated by '\0'.
+ */
+final class DependencyRecorder {
+	static final char TYPE = 'T', DESC = 'D', METHOD_DESC = 'E', SIGNATURE = 'S', TYPE_SIGNATURE = 'U';
+	// Member lookups in the owner only and ones that also check its parents
+	static final char FIELD = 'F', INHERITED_FIELD = 'G', METHOD = 'M', INHERITED_METHOD = 'N';
+	static final char FIELD_ACCESS = 'f', METHOD_ACCESS = 'm';
+
+	private final Map<String, String> results = new LinkedHashMap<>();
+
+	static String query(char kind, String name) {
+		return kind + name;
+	}
+
+	static String query(char kind, String owner, String name, String desc) {
+		return kind + owner + '\0' + name + '\0' + desc;
+	}
+
+	/**
+	 * Decodes the arguments of a query
+	 */
+	static String[] arguments(String query) {
+		return query.substring(1).split("\0", -1);
+	}
+
+	void record(String query, String result) {
+		results.put(query, result);
+	}
+
+	RemapManifest.Entry toEntry(byte[] inputHash, String outputName) {
+		String[] queries = results.keySet().toArray(new String[results.size()]);
+		return new RemapManifest.Entry(inputHash, outputName, queries,
+				RemapManifest.digest(new ArrayList<>(results.values())));
+	}
+}
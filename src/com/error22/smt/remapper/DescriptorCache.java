@@ -0,0 +1,41 @@
+package com.error22.smt.remapper;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers what descriptors or signatures were remapped to. Once it holds
+ * its maximum number of entries new ones are no longer added, the
+ * descriptors a jar uses most are seen early and stay cached. Safe to read
+ * while other threads are remapping.
+ */
+final class DescriptorCache {
+	private final ConcurrentMap<String, String> mapped = new ConcurrentHashMap<>();
+	private final int maximumSize;
+
+	/**
+	 * @param maximumSize
+	 *            The number of entries after which nothing more is cached
+	 */
+	DescriptorCache(int maximumSize) {
+		this.maximumSize = maximumSize;
+	}
+
+	/**
+	 * @return The remapped descriptor or null if it is not cached
+	 */
+	String get(String descriptor) {
+		return mapped.get(descriptor);
+	}
+
+	void put(String descriptor, String remapped) {
+		// Threads racing at the limit can go a few entries over, that is fine
+		if (mapped.size() < maximumSize) {
+			mapped.put(descriptor, remapped);
+		}
+	}
+
+	void clear() {
+		mapped.clear();
+	}
+}
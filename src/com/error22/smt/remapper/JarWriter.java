@@ -0,0 +1,192 @@
+package com.error22.smt.remapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Writes the output jar. Unlike JarOutputStream entries read through a
+ * {@link ZipIndex} can be copied over still compressed, the data is
+ * transferred between the channels without passing through the heap.
+ *
+ * Every entry gets the time JarEntry.setTime(0) would give it, DOS time
+ * 1980-01-01 and an extended timestamp of 0.
+ */
+final class JarWriter implements Closeable {
+	static final int STORED = 0, DEFLATED = 8;
+
+	private static final int LOCAL_SIGNATURE = 0x04034b50, CENTRAL_SIGNATURE = 0x02014b50,
+			END_SIGNATURE = 0x06054b50;
+	private static final int UTF8_FLAG = 0x800;
+	// Flags describing how the data was compressed, these are kept when copying
+	private static final int COMPRESSION_FLAGS = 0x6;
+	private static final int DOS_TIME = 0, DOS_DATE = (1 << 5) | 1;
+	private static final int TIMESTAMP_ID = 0x5455, TIMESTAMP_LENGTH = 9;
+
+	private final FileOutputStream stream;
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private final ByteArrayOutputStream central;
+	private final Deflater deflater;
+	private final CRC32 crc;
+	// Checked like JarOutputStream does, a zip with the same name twice reads back as either entry
+	private final Set<String> names;
+	private long position;
+	private int count;
+
+	JarWriter(File file) throws IOException {
+		stream = new FileOutputStream(file);
+		channel = stream.getChannel();
+		buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+		central = new ByteArrayOutputStream();
+		deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		crc = new CRC32();
+		names = new HashSet<>();
+	}
+
+	/**
+	 * Deflates and writes an entry
+	 */
+	void write(String name, byte[] data) throws IOException {
+		addName(name);
+		crc.reset();
+		crc.update(data, 0, data.length);
+
+		deflater.reset();
+		deflater.setInput(data);
+		deflater.finish();
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 64);
+		byte[] chunk = new byte[1 << 13];
+		while (!deflater.finished()) {
+			int n = deflater.deflate(chunk);
+			compressed.write(chunk, 0, n);
+		}
+
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		writeHeader(nameBytes, 0, DEFLATED, (int) crc.getValue(), compressed.size(), data.length);
+		write(compressed.toByteArray());
+	}
+
+	/**
+	 * Copies an entry without inflating it
+	 */
+	void copy(ZipIndex index, ZipIndex.Entry entry) throws IOException {
+		addName(entry.getName());
+		byte[] nameBytes = entry.getName().getBytes(StandardCharsets.UTF_8);
+		writeHeader(nameBytes, entry.getFlags() & COMPRESSION_FLAGS, entry.getMethod(), entry.getCrc(),
+				entry.getCompressedSize(), entry.getSize());
+		flush();
+
+		FileChannel source = index.getChannel();
+		long offset = index.getDataOffset(entry);
+		long remaining = entry.getCompressedSize();
+		while (remaining > 0) {
+			long n = source.transferTo(offset, remaining, channel);
+			if (n <= 0) {
+				throw new IOException("Unexpected end of zip while copying " + entry.getName());
+			}
+			offset += n;
+			remaining -= n;
+		}
+		position += entry.getCompressedSize();
+	}
+
+	private void addName(String name) throws ZipException {
+		if (!names.add(name)) {
+			throw new ZipException("duplicate entry: " + name);
+		}
+	}
+
+	private void writeHeader(byte[] name, int flags, int method, int crc, long compressedSize, long size)
+			throws IOException {
+		if (position > 0xFFFFFFFFL || compressedSize > 0xFFFFFFFFL || size > 0xFFFFFFFFL || count == 0xFFFF) {
+			throw new ZipException("Output jar needs zip64 which is not supported");
+		}
+		flags |= UTF8_FLAG;
+		int version = method == DEFLATED ? 20 : 10;
+
+		ByteBuffer record = ByteBuffer.allocate(46 + name.length + TIMESTAMP_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+		record.putInt(CENTRAL_SIGNATURE).putShort((short) version).putShort((short) version);
+		putCommon(record, flags, method, crc, compressedSize, size, name.length);
+		record.putShort((short) 0).putShort((short) 0).putShort((short) 0).putInt(0).putInt((int) position);
+		record.put(name);
+		putTimestamp(record);
+		central.write(record.array(), 0, record.position());
+		count++;
+
+		record = ByteBuffer.allocate(30 + name.length + TIMESTAMP_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+		record.putInt(LOCAL_SIGNATURE).putShort((short) version);
+		putCommon(record, flags, method, crc, compressedSize, size, name.length);
+		record.put(name);
+		putTimestamp(record);
+		write(record.array());
+	}
+
+	private static void putCommon(ByteBuffer record, int flags, int method, int crc, long compressedSize, long size,
+			int nameLength) {
+		record.putShort((short) flags).putShort((short) method).putShort((short) DOS_TIME).putShort((short) DOS_DATE);
+		record.putInt(crc).putInt((int) compressedSize).putInt((int) size);
+		record.putShort((short) nameLength).putShort((short) TIMESTAMP_LENGTH);
+	}
+
+	private static void putTimestamp(ByteBuffer record) {
+		// Extended timestamp with only the modification time set
+		record.putShort((short) TIMESTAMP_ID).putShort((short) (TIMESTAMP_LENGTH - 4)).put((byte) 1).putInt(0);
+	}
+
+	private void write(byte[] data) throws IOException {
+		int offset = 0;
+		while (offset < data.length) {
+			if (!buffer.hasRemaining()) {
+				flush();
+			}
+			int n = Math.min(buffer.remaining(), data.length - offset);
+			buffer.put(data, offset, n);
+			offset += n;
+		}
+		position += data.length;
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Writes the central directory and closes the file
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (position > 0xFFFFFFFFL) {
+				throw new ZipException("Output jar needs zip64 which is not supported");
+			}
+			long directoryOffset = position;
+			write(central.toByteArray());
+
+			ByteBuffer end = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+			end.putInt(END_SIGNATURE).putShort((short) 0).putShort((short) 0);
+			end.putShort((short) count).putShort((short) count);
+			end.putInt(central.size()).putInt((int) directoryOffset).putShort((short) 0);
+			write(end.array());
+			flush();
+		} finally {
+			deflater.end();
+			stream.close();
+		}
+	}
+}
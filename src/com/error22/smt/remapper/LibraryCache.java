@@ -0,0 +1,124 @@
+package com.error22.smt.remapper;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.common.collect.Interner;
+import com.google.common.hash.Hashing;
+
+/**
+ * Stores the class infos of a library so later runs do not have to parse it
+ * again. A cache file belongs to one library path and is only used while the
+ * size and modification time of the library match; if only the time changed
+ * the contents are hashed to see if it can still be used.
+ */
+final class LibraryCache {
+	private static final int MAGIC = 0x534D544C; // SMTL
+	private static final int VERSION = 1;
+	private static final int HASH_LENGTH = 20;
+	private static final int HEADER_LENGTH = 8 + 8 + 8 + HASH_LENGTH;
+
+	private LibraryCache() {
+	}
+
+	/**
+	 * @return The cache file of a library, named after its path so libraries
+	 *         with the same file name do not collide
+	 */
+	static File getFile(File directory, File library) throws IOException {
+		String path = library.getCanonicalPath();
+		String key = Hashing.sha1().hashUnencodedChars(path).toString().substring(0, 16);
+		return new File(directory, library.getName() + "-" + key + ".smtlib");
+	}
+
+	private static byte[] hash(File library) throws IOException {
+		return Hashing.sha1().hashBytes(Files.readAllBytes(library.toPath())).asBytes();
+	}
+
+	/**
+	 * Reads the cached class infos of a library
+	 *
+	 * @return The class infos by name, or null if there is no usable cache
+	 */
+	static Map<String, ClassInfo> read(File cache, File library, Interner<String> interner) throws IOException {
+		if (!cache.isFile()) {
+			return null;
+		}
+
+		BinaryInput in = new BinaryInput(BinaryInput.read(cache));
+		ByteBuffer buffer = in.getBuffer();
+		if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			return null;
+		}
+
+		long size = buffer.getLong();
+		long modified = buffer.getLong();
+		byte[] hash = new byte[HASH_LENGTH];
+		buffer.get(hash);
+		if (size != library.length()) {
+			return null;
+		}
+
+		boolean touched = modified != library.lastModified();
+		if (touched && !Arrays.equals(hash, hash(library))) {
+			return null;
+		}
+
+		Map<String, ClassInfo> classes = new LinkedHashMap<>();
+		try {
+			in.readStrings();
+			if (!in.readString().equals(library.getCanonicalPath())) {
+				return null;
+			}
+
+			for (int i = in.readVarInt(); i > 0; i--) {
+				String name = in.readString();
+				classes.put(name, ClassInfo.read(in, interner));
+			}
+		} catch (RuntimeException e) {
+			// Truncated or corrupt, it is simply rebuilt
+			return null;
+		}
+
+		if (touched) {
+			// Same contents, store the new time so the next run does not have to hash it again
+			try {
+				write(cache, library, classes);
+			} catch (IOException e) {
+				// Another run may be replacing it too, it will be hashed again next time
+			}
+		}
+		return classes;
+	}
+
+	static void write(File cache, File library, Map<String, ClassInfo> classes) throws IOException {
+		BinaryOutput body = new BinaryOutput();
+		body.writeString(library.getCanonicalPath());
+		body.writeVarInt(classes.size());
+		for (Map.Entry<String, ClassInfo> e : classes.entrySet()) {
+			body.writeString(e.getKey());
+			e.getValue().write(body);
+		}
+
+		// Written next to the cache and moved over it, another run may be reading the old one
+		File temp = new File(cache.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(library.length());
+			out.writeLong(library.lastModified());
+			out.write(hash(library));
+			body.writeTo(out);
+		}
+		Files.move(temp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+}
@@ -0,0 +1,110 @@
+package com.error22.smt.remapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.objectweb.asm.ClassReader;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Interner;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Libraries loaded lazily, only the names of their classes are read up front.
+ * A class is parsed the first time it is asked for and kept in a bounded
+ * cache, so classes that never show up in a hierarchy walk are never parsed.
+ * A class that cannot be parsed is logged once and treated as missing.
+ */
+final class LibraryIndex {
+	// Enough for the hierarchies of a large jar, evicted classes are simply parsed again
+	private static final int CACHE_SIZE = 1 << 14;
+
+	private final ILog log;
+	private final Map<String, JarFile> owners;
+	private final List<JarFile> jars;
+	private final LoadingCache<String, ClassInfo> classes;
+	// Classes that could not be parsed, so they are only logged once
+	private final Set<String> broken;
+
+	LibraryIndex(final Interner<String> interner, ILog log) {
+		this.log = log;
+		owners = new ConcurrentHashMap<>();
+		broken = ConcurrentHashMap.newKeySet();
+		jars = new ArrayList<>();
+		classes = CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).build(new CacheLoader<String, ClassInfo>() {
+			@Override
+			public ClassInfo load(String name) throws IOException {
+				JarFile jar = owners.get(name);
+				try (InputStream is = jar.getInputStream(jar.getJarEntry(name + ".class"))) {
+					return ClassInfo.read(new ClassReader(is), interner);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Indexes the classes in a library, replacing classes with the same name
+	 * from libraries added before it. The jar is kept open until clear().
+	 */
+	synchronized void add(File path) throws IOException {
+		JarFile jar = new JarFile(path, false);
+		jars.add(jar);
+
+		for (Enumeration<JarEntry> entr = jar.entries(); entr.hasMoreElements();) {
+			JarEntry entry = entr.nextElement();
+			String name = entry.getName();
+
+			if (!entry.isDirectory() && name.endsWith(".class")) {
+				name = name.substring(0, name.length() - SMRemapper.CLASS_LENGTH);
+				owners.put(name, jar);
+				classes.invalidate(name);
+				broken.remove(name);
+			}
+		}
+	}
+
+	/**
+	 * @return The class, or null if no library has it or it cannot be parsed
+	 */
+	ClassInfo get(String name) {
+		if (!owners.containsKey(name) || broken.contains(name)) {
+			return null;
+		}
+		try {
+			return classes.getUnchecked(name);
+		} catch (UncheckedExecutionException e) {
+			if (broken.add(name)) {
+				log.log("Failed to load lib class! " + name + " " + e.getCause());
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Closes every library and forgets their classes
+	 */
+	synchronized void clear() {
+		owners.clear();
+		classes.invalidateAll();
+		broken.clear();
+		for (JarFile jar : jars) {
+			try {
+				jar.close();
+			} catch (IOException e) {
+				// Only read from, nothing is lost
+			}
+		}
+		jars.clear();
+	}
+}
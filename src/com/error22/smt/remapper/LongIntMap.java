@@ -0,0 +1,117 @@
+package com.error22.smt.remapper;
+
+/**
+ * An open addressing map from long keys to non negative int values, without
+ * boxing either of them.
+ */
+final class LongIntMap {
+	private long[] keys;
+	private int[] values; // value + 1, 0 marks an empty slot
+	private int size;
+
+	LongIntMap(int expected) {
+		int capacity = 16;
+		while (capacity < expected * 2) {
+			capacity <<= 1;
+		}
+		keys = new long[capacity];
+		values = new int[capacity];
+	}
+
+	/**
+	 * @return The value, or -1 if the key is not in the map
+	 */
+	int get(long key) {
+		int mask = keys.length - 1;
+		for (int slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+			if (values[slot] == 0) {
+				return -1;
+			}
+			if (keys[slot] == key) {
+				return values[slot] - 1;
+			}
+		}
+	}
+
+	/**
+	 * @return The previous value, or -1 if the key was not in the map
+	 */
+	int put(long key, int value) {
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		for (; values[slot] != 0; slot = (slot + 1) & mask) {
+			if (keys[slot] == key) {
+				int previous = values[slot] - 1;
+				values[slot] = value + 1;
+				return previous;
+			}
+		}
+
+		keys[slot] = key;
+		values[slot] = value + 1;
+		if (++size * 2 > keys.length) {
+			rehash();
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The value, or -1 if the key was not in the map
+	 */
+	int remove(long key) {
+		int mask = keys.length - 1;
+		for (int slot = hash(key) & mask; values[slot] != 0; slot = (slot + 1) & mask) {
+			if (keys[slot] != key) {
+				continue;
+			}
+			int previous = values[slot] - 1;
+			// Later keys of the run are moved back into the gap, so a lookup never stops short of them
+			int gap = slot;
+			for (int next = (gap + 1) & mask; values[next] != 0; next = (next + 1) & mask) {
+				int home = hash(keys[next]) & mask;
+				if (((next - home) & mask) >= ((next - gap) & mask)) {
+					keys[gap] = keys[next];
+					values[gap] = values[next];
+					gap = next;
+				}
+			}
+			values[gap] = 0;
+			size--;
+			return previous;
+		}
+		return -1;
+	}
+
+	int size() {
+		return size;
+	}
+
+	private void rehash() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new int[oldValues.length * 2];
+
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != 0) {
+				int slot = hash(oldKeys[i]) & mask;
+				while (values[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private static int hash(long key) {
+		// Finalizer from MurmurHash3, packed ids are far from random
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+}
@@ -0,0 +1,235 @@
+package com.error22.smt.remapper;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.error22.smt.remapper.parser.AstralMapBaseListener;
+import com.error22.smt.remapper.parser.AstralMapLexer;
+import com.error22.smt.remapper.parser.AstralMapParser;
+import org.antlr.v4.runtime.CommonTokenFactory;
+import org.antlr.v4.runtime.UnbufferedCharStream;
+import org.antlr.v4.runtime.UnbufferedTokenStream;
+
+/**
+ * Loads an AstralMap file in a single streaming pass. Each class declaration
+ * is read as soon as the parser leaves it and then dropped from the tree, so
+ * only one declaration is held at a time. Class names go straight into the
+ * class map; members are kept with a descriptor template and resolved once
+ * every class is known, since their signatures have to be normalized to old
+ * or new class names.
+ */
+class MappingLoader extends AstralMapBaseListener {
+	private final MappingStore mappings;
+	private final List<PendingMember> fields, methods;
+
+	MappingLoader(MappingStore mappings) {
+		this.mappings = mappings;
+		fields = new ArrayList<>();
+		methods = new ArrayList<>();
+	}
+
+	/**
+	 * Reads the mapping, adding its classes to the class map. Call
+	 * resolveMembers() afterwards to add the fields and methods.
+	 */
+	void read(File mapping) throws IOException {
+		try (Reader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(mapping), StandardCharsets.UTF_8))) {
+			UnbufferedCharStream input = new UnbufferedCharStream(reader);
+			input.name = mapping.getAbsolutePath();
+			AstralMapLexer lexer = new AstralMapLexer(input);
+			// The char stream does not keep the text around, so the tokens need their own copy
+			lexer.setTokenFactory(new CommonTokenFactory(true));
+			AstralMapParser parser = new AstralMapParser(new UnbufferedTokenStream<>(lexer));
+			parser.addParseListener(this);
+			parser.mapFile();
+		}
+	}
+
+	@Override
+	public void exitClassDeclaration(AstralMapParser.ClassDeclarationContext cdc) {
+		// getText() omits whitespace, but that's good here
+		String oldname = cdc.oldname.getText();
+		String newname = cdc.newname != null ? cdc.newname.getText() : oldname;
+		scanBody(oldname, newname, cdc.classBody());
+
+		// Done with this class, don't let the tree grow with the file
+		cdc.getParent().removeLastChild();
+	}
+
+	private void scanSubclass(String oldparent, String newparent, AstralMapParser.SubclassDeclarationContext sdc) {
+		String oldname = oldparent + "." + sdc.oldname.getText();
+		String newname = sdc.newname != null ? newparent + "." + sdc.newname.getText() : oldname;
+		scanBody(oldname, newname, sdc.classBody());
+	}
+
+	private void scanBody(String oldname, String newname, List<AstralMapParser.ClassBodyContext> lcbc) {
+		if (!oldname.equals(newname)) {
+			mappings.putClass(oldname.replace('.', '/'), newname.replace('.', '/'));
+		}
+
+		for (AstralMapParser.ClassBodyContext cbc : lcbc) {
+			AstralMapParser.FieldDeclarationContext fdc = cbc.fieldDeclaration();
+			AstralMapParser.MethodDeclarationContext mdc = cbc.methodDeclaration();
+
+			if (fdc != null && fdc.newname != null) {
+				fields.add(new PendingMember(oldname, newname, fdc.oldname.getText(), fdc.newname.getText(),
+						template(fdc.type())));
+			} else if (mdc != null && mdc.newname != null) {
+				methods.add(new PendingMember(oldname, newname, mdc.oldname.getText(), mdc.newname.getText(),
+						template(mdc)));
+			}
+		}
+
+		for (AstralMapParser.ClassBodyContext cbc : lcbc) {
+			if (cbc.subclassDeclaration() != null) {
+				scanSubclass(oldname, newname, cbc.subclassDeclaration());
+			}
+		}
+	}
+
+	/**
+	 * Adds the fields and methods read by read(File), their signatures are
+	 * normalized using the class map as it is now
+	 */
+	void resolveMembers() {
+		for (PendingMember member : fields) {
+			mappings.putField(member.resolve(true), member.resolve(false));
+		}
+		fields.clear();
+
+		for (PendingMember member : methods) {
+			mappings.putMethod(member.resolve(true), member.resolve(false));
+		}
+		methods.clear();
+	}
+
+	/*
+	 * Descriptor templates use the JVM syntax, except class names are left
+	 * dotted and unresolved between 'L' and ';' until every class is known.
+	 *
+	 * Based on http://journals.ecs.soton.ac.uk/java/tutorial/native1.1/implementing/method.html
+	 */
+
+	private static String template(AstralMapParser.MethodDeclarationContext mdc) {
+		StringBuilder sig = new StringBuilder();
+
+		sig.append("(");
+		for (AstralMapParser.ParameterContext ptc : mdc.parameter()) {
+			sig.append(template(ptc.type()));
+		}
+		sig.append(")");
+
+		if (mdc.result().type() != null) {
+			sig.append(template(mdc.result().type()));
+		} else {
+			sig.append("V"); // void "type"
+		}
+
+		return sig.toString();
+	}
+
+	private static String template(AstralMapParser.TypeContext tc) {
+		if (tc.primitiveType() != null) {
+			return template(tc.primitiveType());
+		} else if (tc.referenceType() != null) {
+			AstralMapParser.ReferenceTypeContext rtc = tc.referenceType();
+			if (rtc.arrayType() != null) {
+				return template(rtc.arrayType());
+			} else if (rtc.classType() != null) {
+				return template(rtc.classType());
+			} else {
+				throw new RuntimeException("Unknown type: " + rtc.toString());
+			}
+		} else {
+			throw new RuntimeException("Unknown type: " + tc.toString());
+		}
+	}
+
+	private static String template(AstralMapParser.ArrayTypeContext atc) {
+		// FIXME: Count the dimensions?
+		String prefix = "[";
+		if (atc.classType() != null) {
+			return prefix + template(atc.classType());
+		} else if (atc.primitiveType() != null) {
+			return prefix + template(atc.primitiveType());
+		} else {
+			throw new RuntimeException("Unknown array type: " + atc.toString());
+		}
+	}
+
+	private static String template(AstralMapParser.ClassTypeContext ctc) {
+		return "L" + ctc.getText() + ";";
+	}
+
+	private static String template(AstralMapParser.PrimitiveTypeContext ptc) {
+		// Basic type, just look it up
+		switch (ptc.getText()) {
+			case "boolean":
+				return "Z";
+			case "byte":
+				return "B";
+			case "char":
+				return "C";
+			case "short":
+				return "S";
+			case "int":
+				return "I";
+			case "long":
+				return "J";
+			case "float":
+				return "F";
+			case "double":
+				return "D";
+			default:
+				throw new RuntimeException("Got an unknown primitive type: " + ptc.getText());
+		}
+	}
+
+	/**
+	 * Produces the JRE type signature of a template, normalizing class names
+	 * to the old or new name
+	 */
+	private String resolve(String template, boolean toOld) {
+		MappingStore classes = toOld ? mappings.inverse() : mappings;
+		StringBuilder sig = new StringBuilder(template.length());
+
+		for (int i = 0; i < template.length(); i++) {
+			char c = template.charAt(i);
+			sig.append(c);
+			if (c == 'L') {
+				int end = template.indexOf(';', i);
+				String classname = template.substring(i + 1, end);
+				String mapped = classes.mapClass(classname);
+				sig.append((mapped != null ? mapped : classname).replace('.', '/'));
+				i = end - 1;
+			}
+		}
+
+		return sig.toString();
+	}
+
+	private class PendingMember {
+		private final String oldOwner, newOwner, oldName, newName, template;
+
+		PendingMember(String oldOwner, String newOwner, String oldName, String newName, String template) {
+			this.oldOwner = oldOwner;
+			this.newOwner = newOwner;
+			this.oldName = oldName;
+			this.newName = newName;
+			this.template = template;
+		}
+
+		StringTriple resolve(boolean toOld) {
+			return toOld ? new StringTriple(oldOwner, oldName, MappingLoader.this.resolve(template, true))
+					: new StringTriple(newOwner, newName, MappingLoader.this.resolve(template, false));
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.error22.smt.remapper;
+
+import java.util.Map.Entry;
+
+/**
+ * Holds the class, field and method mappings loaded by SMRemapper.
+ */
+interface MappingStore {
+	/**
+	 * @return The new name of the class, or null if it is not mapped
+	 */
+	String mapClass(String name);
+
+	/**
+	 * @return The new name of the field, or null if it is not mapped
+	 */
+	String mapField(String owner, String name, String desc);
+
+	/**
+	 * @return The new name of the method, or null if it is not mapped
+	 */
+	String mapMethod(String owner, String name, String desc);
+
+	/**
+	 * Adds a class mapping, overwriting any existing rule for the old name
+	 *
+	 * @throws IllegalArgumentException
+	 *             If another class is already mapped to the new name
+	 */
+	void putClass(String oldName, String newName);
+
+	/**
+	 * Adds a field mapping, overwriting any existing rule for the old field
+	 *
+	 * @throws IllegalArgumentException
+	 *             If another field is already mapped to the new field
+	 */
+	void putField(StringTriple oldField, StringTriple newField);
+
+	/**
+	 * Adds a method mapping, overwriting any existing rule for the old method
+	 *
+	 * @throws IllegalArgumentException
+	 *             If another method is already mapped to the new method
+	 */
+	void putMethod(StringTriple oldMethod, StringTriple newMethod);
+
+	int classCount();
+
+	int fieldCount();
+
+	int methodCount();
+
+	Iterable<Entry<String, String>> classes();
+
+	Iterable<Entry<StringTriple, StringTriple>> fields();
+
+	Iterable<Entry<StringTriple, StringTriple>> methods();
+
+	/**
+	 * @return A view of the same mappings going from new to old names, changes
+	 *         to either one show up in both
+	 */
+	MappingStore inverse();
+
+	void clear();
+}
@@ -0,0 +1,262 @@
+package com.error22.smt.remapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * What every inherited method lookup resolves to, worked out for the whole
+ * hierarchy of the input classes at once instead of walking it for each
+ * lookup. A method is grouped with the methods of the same name and desc in
+ * its super types, so a group holds a method and everything that overrides it
+ * or is overridden by it. Every method in a group should be renamed the same,
+ * groups where the mapping renames them differently are reported.
+ * <p>
+ * A method resolves to the first rename found going up the hierarchy,
+ * superclass before interfaces, exactly like SMRemapper walking it. In a group
+ * without conflicts that is the name of the group. Only methods whose name is
+ * mapped somewhere are kept, every other name resolves to nothing.
+ */
+final class OverrideGroups {
+	private final SMRemapper remapper;
+	// Member to resolved name or ResolutionCache.UNMAPPED
+	private final Map<StringTriple, String> resolved;
+
+	private OverrideGroups(SMRemapper remapper, Map<StringTriple, String> resolved) {
+		this.remapper = remapper;
+		this.resolved = resolved;
+	}
+
+	/**
+	 * Groups the methods of some classes and everything they inherit from
+	 *
+	 * @param remapper
+	 *            Where the classes are looked up
+	 * @param mappings
+	 *            The method mappings to resolve against
+	 * @param classes
+	 *            The classes to start from
+	 * @param log
+	 *            Where conflicting renames are reported
+	 * @return The resolved methods
+	 */
+	static OverrideGroups build(SMRemapper remapper, MappingStore mappings, Collection<String> classes, ILog log) {
+		Builder builder = new Builder(remapper, mappings);
+		for (String name : classes) {
+			builder.visit(name);
+		}
+		return new OverrideGroups(remapper, builder.finish(log));
+	}
+
+	/**
+	 * @return The resolved name, {@link ResolutionCache#UNMAPPED} or null if
+	 *         the member is not part of the loaded hierarchy and has to be
+	 *         resolved by walking it
+	 */
+	String get(StringTriple member) {
+		if (!remapper.isMappedMemberName(member.getName())) {
+			return ResolutionCache.UNMAPPED;
+		}
+		return resolved.get(member);
+	}
+
+	private static final class Builder {
+		private final SMRemapper remapper;
+		private final MappingStore mappings;
+		// Mapped methods by owner, a mapping can name a method the class does not declare
+		private final Map<String, List<StringTriple>> mapped;
+		// The methods of every visited class by name and desc, with the owner left out
+		private final Map<String, Map<StringTriple, Integer>> classes;
+		private final List<StringTriple> members;
+		// Union-find over the members, and the direct and resolved rename of each
+		private int[] parent;
+		private String[] direct, names;
+
+		Builder(SMRemapper remapper, MappingStore mappings) {
+			this.remapper = remapper;
+			this.mappings = mappings;
+			mapped = new HashMap<>();
+			for (Entry<StringTriple, StringTriple> e : mappings.methods()) {
+				StringTriple method = e.getKey();
+				List<StringTriple> methods = mapped.get(method.getCls());
+				if (methods == null) {
+					methods = new ArrayList<>();
+					mapped.put(method.getCls(), methods);
+				}
+				methods.add(new StringTriple(null, method.getName(), method.getSig()));
+			}
+			classes = new HashMap<>();
+			members = new ArrayList<>();
+			parent = new int[64];
+			direct = new String[64];
+			names = new String[64];
+		}
+
+		/**
+		 * Adds a class after its super types
+		 *
+		 * @return The methods the class declares or inherits, or null if the
+		 *         class is not known and nothing in it is mapped
+		 */
+		Map<StringTriple, Integer> visit(String name) {
+			Map<StringTriple, Integer> methods = classes.get(name);
+			if (methods != null || classes.containsKey(name)) {
+				return methods;
+			}
+
+			ClassInfo info = remapper.getClassInfo(name);
+			List<StringTriple> mappedMethods = mapped.get(name);
+			if (info == null && mappedMethods == null) {
+				classes.put(name, null);
+				return null;
+			}
+			// Stops a broken hierarchy that loops back to this class
+			classes.put(name, Collections.<StringTriple, Integer> emptyMap());
+
+			String[] supers = superTypes(info);
+			List<Map<StringTriple, Integer>> superMethods = new ArrayList<>(supers.length);
+			for (String superName : supers) {
+				superMethods.add(visit(superName));
+			}
+
+			methods = new LinkedHashMap<>();
+			if (info != null) {
+				String[] methodNames = info.getMethodNames(), methodDescs = info.getMethodDescs();
+				for (int i = 0; i < methodNames.length; i++) {
+					add(methods, name, new StringTriple(null, methodNames[i], methodDescs[i]));
+				}
+			}
+			if (mappedMethods != null) {
+				for (StringTriple method : mappedMethods) {
+					add(methods, name, method);
+				}
+			}
+			for (Map<StringTriple, Integer> inherited : superMethods) {
+				if (inherited != null) {
+					for (StringTriple method : inherited.keySet()) {
+						add(methods, name, method);
+					}
+				}
+			}
+
+			for (Entry<StringTriple, Integer> e : methods.entrySet()) {
+				int id = e.getValue();
+				String resolved = direct[id];
+				for (Map<StringTriple, Integer> inherited : superMethods) {
+					Integer superId = inherited != null ? inherited.get(e.getKey()) : null;
+					if (superId != null) {
+						union(id, superId);
+						if (resolved == null) {
+							resolved = names[superId];
+						}
+					}
+				}
+				names[id] = resolved;
+			}
+
+			classes.put(name, methods);
+			return methods;
+		}
+
+		private static String[] superTypes(ClassInfo info) {
+			if (info == null) {
+				return new String[0];
+			}
+			if (info.getSuperName() == null) {
+				return info.getInterfaces();
+			}
+			String[] supers = new String[info.getInterfaces().length + 1];
+			supers[0] = info.getSuperName();
+			System.arraycopy(info.getInterfaces(), 0, supers, 1, info.getInterfaces().length);
+			return supers;
+		}
+
+		private void add(Map<StringTriple, Integer> methods, String owner, StringTriple method) {
+			if (methods.containsKey(method) || !remapper.isMappedMemberName(method.getName())) {
+				return;
+			}
+
+			int id = members.size();
+			if (id == parent.length) {
+				parent = Arrays.copyOf(parent, id * 2);
+				direct = Arrays.copyOf(direct, id * 2);
+				names = Arrays.copyOf(names, id * 2);
+			}
+			members.add(new StringTriple(owner, method.getName(), method.getSig()));
+			parent[id] = id;
+			direct[id] = mappings.mapMethod(owner, method.getName(), method.getSig());
+			methods.put(method, id);
+		}
+
+		private int find(int id) {
+			while (parent[id] != id) {
+				// Halving the path keeps the trees flat without recursing
+				parent[id] = parent[parent[id]];
+				id = parent[id];
+			}
+			return id;
+		}
+
+		private void union(int a, int b) {
+			a = find(a);
+			b = find(b);
+			if (a != b) {
+				parent[Math.max(a, b)] = Math.min(a, b);
+			}
+		}
+
+		/**
+		 * Reports the groups renamed more than one way and flattens the
+		 * members into the lookup table
+		 */
+		Map<StringTriple, String> finish(ILog log) {
+			int count = members.size();
+			// The rename of each group, at its root
+			String[] groupNames = new String[count];
+			Map<Integer, Set<String>> conflicts = new LinkedHashMap<>();
+			int groups = 0;
+			for (int id = 0; id < count; id++) {
+				int root = find(id);
+				if (root == id) {
+					groups++;
+				}
+				if (direct[id] == null) {
+					continue;
+				}
+				if (groupNames[root] == null) {
+					groupNames[root] = direct[id];
+				} else if (!groupNames[root].equals(direct[id])) {
+					Set<String> renames = conflicts.get(root);
+					if (renames == null) {
+						renames = new LinkedHashSet<>();
+						renames.add(groupNames[root]);
+						conflicts.put(root, renames);
+					}
+					renames.add(direct[id]);
+				}
+			}
+
+			for (Entry<Integer, Set<String>> e : conflicts.entrySet()) {
+				StringTriple method = members.get(e.getKey());
+				log.log("    Conflicting renames for " + method.getCls() + "." + method.getName() + method.getSig()
+						+ " and its overrides: " + e.getValue());
+			}
+			log.log("    Grouped " + count + " methods into " + groups + " override groups, " + conflicts.size()
+					+ " with conflicting renames");
+
+			Map<StringTriple, String> resolved = new HashMap<>(count * 4 / 3 + 1);
+			for (int id = 0; id < count; id++) {
+				resolved.put(members.get(id), names[id] != null ? names[id] : ResolutionCache.UNMAPPED);
+			}
+			return resolved;
+		}
+	}
+}
@@ -0,0 +1,440 @@
+package com.error22.smt.remapper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.AclEntryPermission;
+import java.nio.file.attribute.AclEntryType;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Keeps mappings and libraries loaded between remaps. Jobs are the usual
+ * command line arguments sent over a loopback socket by submit(...), the log
+ * of the job is sent back as it runs.
+ * <p>
+ * Jobs loading the same mapping and libs folder with the same settings share
+ * one remapper. Before each job the mapping and libraries are checked and
+ * only the files that changed are loaded again. Every job remaps on a fork
+ * of the shared remapper, so jobs can run at the same time without seeing
+ * each other's classes. A reload waits for the running jobs of its remapper.
+ * Only the remappers of the last few load keys are kept.
+ * <p>
+ * A job reads and writes any file the user running the daemon can, so only
+ * that user may submit them. The port is only bound on loopback, which still
+ * lets every local user connect, so at startup the daemon writes a random
+ * token to a file only its owner can read. A client sends the token before
+ * its job and the daemon drops any connection that does not. Whoever can
+ * read the token file can run jobs as the owner of the daemon. Clients that
+ * connect without sending anything are timed out, and only so many are
+ * handled at once.
+ */
+final class RemapDaemon {
+	private static final int LOG = 0, DONE = 1, FAILED = 2;
+	private static final int TOKEN_LENGTH = 32;
+	// How long a client has to send its token and job, a connection that sends nothing does not hold a thread
+	private static final int REQUEST_TIMEOUT = 10000;
+	// Connections handled at once, more are closed straight away
+	private static final int MAX_CLIENTS = 16;
+	// Load keys kept loaded, the one used longest ago is dropped first
+	private static final int MAX_WORKSPACES = 4;
+
+	private final ILog log;
+	private final File tokenFile;
+	// In the order they were last used
+	private final Map<String, Workspace> workspaces = new LinkedHashMap<String, Workspace>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Workspace> eldest) {
+			if (size() <= MAX_WORKSPACES) {
+				return false;
+			}
+			// Jobs still running on it keep it until they are done
+			log.log("Dropping the mapping " + eldest.getKey() + ", it was not used for a while");
+			return true;
+		}
+	};
+	// Set by serve(...) before the first client is accepted
+	private byte[] token;
+
+	/**
+	 * @param log
+	 *            Where the daemon logs the jobs it runs
+	 * @param tokenFile
+	 *            Where serve(...) writes the token clients have to send
+	 */
+	RemapDaemon(ILog log, File tokenFile) {
+		this.log = log;
+		this.tokenFile = tokenFile;
+	}
+
+	/**
+	 * @return Where the token of the daemon on a port is kept, in the home
+	 *         directory of the user
+	 */
+	static File getTokenFile(int port) {
+		return new File(System.getProperty("user.home"), ".smremapper" + File.separator + "daemon-" + port + ".token");
+	}
+
+	/**
+	 * Writes a new token and accepts jobs on a loopback port until the
+	 * process is stopped, each job runs on a thread of its own
+	 */
+	void serve(int port) throws IOException {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_CLIENTS, MAX_CLIENTS, 60, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>());
+		pool.allowCoreThreadTimeOut(true);
+		try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+			// Written once the port is taken, so a client that finds the token finds the daemon too
+			byte[] random = new byte[TOKEN_LENGTH];
+			new SecureRandom().nextBytes(random);
+			String text = BaseEncoding.base16().lowerCase().encode(random);
+			writeToken(tokenFile, text);
+			tokenFile.deleteOnExit();
+			token = text.getBytes(StandardCharsets.UTF_8);
+
+			log.log("Waiting for jobs on " + server.getLocalSocketAddress() + ", token in " + tokenFile);
+			while (true) {
+				final Socket socket = server.accept();
+				try {
+					pool.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								handle(socket);
+							} catch (IOException e) {
+								log.log("Failed to talk to client! " + e);
+							}
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					log.log("Too many clients, closing the new one");
+					socket.close();
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private void handle(Socket socket) throws IOException {
+		try (Socket s = socket) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+			s.setSoTimeout(REQUEST_TIMEOUT);
+			// Checked before anything else is read, a client without the token does not get to send a job
+			if (!MessageDigest.isEqual(in.readUTF().getBytes(StandardCharsets.UTF_8), token)) {
+				log.log("Rejected a client with the wrong token");
+				new ClientLog(out).finish(FAILED, "Wrong token");
+				return;
+			}
+			String[] args = new String[in.readInt()];
+			for (int i = 0; i < args.length; i++) {
+				args[i] = in.readUTF();
+			}
+			// Nothing more is read, the job itself can take as long as it needs
+			s.setSoTimeout(0);
+
+			ClientLog jobLog = new ClientLog(out);
+			RemapJob job;
+			try {
+				job = RemapJob.parse(args);
+			} catch (IllegalArgumentException e) {
+				log.log("Invalid job! " + e.getMessage());
+				jobLog.finish(FAILED, e.getMessage());
+				return;
+			}
+
+			long start = System.nanoTime();
+			try {
+				log.log("Job " + job.input + " -> " + job.output);
+				run(job, jobLog);
+				log.log("Job " + job.input + " done in " + (System.nanoTime() - start) / 1000000 + " ms");
+				jobLog.finish(DONE, "");
+			} catch (Exception e) {
+				log.log("Job failed! " + e);
+				jobLog.finish(FAILED, e.toString());
+			}
+		}
+	}
+
+	private void run(RemapJob job, ILog jobLog) throws Exception {
+		Workspace workspace;
+		// Creating one loads nothing yet, that happens in its run(...)
+		synchronized (workspaces) {
+			workspace = workspaces.get(job.getLoadKey());
+			if (workspace == null) {
+				workspace = new Workspace(job);
+				workspaces.put(job.getLoadKey(), workspace);
+			}
+		}
+		workspace.run(job, jobLog);
+	}
+
+	/**
+	 * Writes the token to a file only the current user can read or write
+	 */
+	private static void writeToken(File file, String token) throws IOException {
+		Path path = file.toPath();
+		Files.createDirectories(path.getParent());
+		// Created again so the permissions are set before the token is in it
+		Files.deleteIfExists(path);
+		if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+			Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		} else {
+			Files.createFile(path);
+			AclFileAttributeView acl = Files.getFileAttributeView(path, AclFileAttributeView.class);
+			if (acl == null) {
+				throw new IOException("Could not make " + file + " private");
+			}
+			// Replaces the entries inherited from the folder, only the owner is left
+			acl.setAcl(Collections.singletonList(AclEntry.newBuilder().setType(AclEntryType.ALLOW)
+					.setPrincipal(acl.getOwner()).setPermissions(EnumSet.allOf(AclEntryPermission.class)).build()));
+		}
+		Files.write(path, token.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Sends a job to a daemon and logs what it sends back
+	 *
+	 * @param port
+	 *            The loopback port the daemon is on
+	 * @param tokenFile
+	 *            The token file the daemon wrote
+	 * @param args
+	 *            The job, as on the command line with absolute paths
+	 * @param log
+	 *            Where the log of the job goes
+	 * @return If the job finished without failing
+	 * @throws IOException
+	 *             If the token could not be read, or the daemon could not be
+	 *             reached or went away
+	 */
+	static boolean submit(int port, File tokenFile, String[] args, ILog log) throws IOException {
+		String token = new String(Files.readAllBytes(tokenFile.toPath()), StandardCharsets.UTF_8);
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.writeUTF(token);
+			out.writeInt(args.length);
+			for (String arg : args) {
+				out.writeUTF(arg);
+			}
+			out.flush();
+
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			while (true) {
+				int type = in.readByte();
+				String text = in.readUTF();
+				if (type == LOG) {
+					log.log(text);
+				} else {
+					if (type == FAILED) {
+						log.log("Job failed! " + text);
+					}
+					return type == DONE;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sends the log of a job to its client. Lines can come from several
+	 * threads of the job at once.
+	 */
+	private static final class ClientLog implements ILog {
+		private final DataOutputStream out;
+		private boolean closed;
+
+		ClientLog(DataOutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public synchronized void log(String text) {
+			send(LOG, text);
+		}
+
+		synchronized void finish(int type, String text) {
+			send(type, text);
+		}
+
+		private void send(int type, String text) {
+			if (closed) {
+				return;
+			}
+			try {
+				out.writeByte(type);
+				out.writeUTF(text);
+				out.flush();
+			} catch (IOException e) {
+				// The client went away, the job still finishes so its output is not left half written
+				closed = true;
+			}
+		}
+	}
+
+	/**
+	 * Logs to whichever job is reloading the shared remapper
+	 */
+	private static final class ForwardingLog implements ILog {
+		private volatile ILog target;
+
+		@Override
+		public void log(String text) {
+			ILog current = target;
+			if (current != null) {
+				current.log(text);
+			}
+		}
+	}
+
+	/**
+	 * The shared remapper of the jobs with one load key, and the state of the
+	 * files it was loaded from
+	 */
+	private static final class Workspace {
+		private final ForwardingLog log = new ForwardingLog();
+		private final SMRemapper base = new SMRemapper(log);
+		// Held by running jobs, a reload needs it to itself
+		private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		private final boolean lazyLibraries;
+		private Stamp mapping;
+		private Map<File, Stamp> libraries = new HashMap<>();
+		// The parsed classes of every library, unless they are loaded lazily
+		private final Map<File, Map<String, ClassInfo>> loaded = new HashMap<>();
+
+		Workspace(RemapJob job) {
+			job.configureLoading(base);
+			lazyLibraries = job.lazyLibraries;
+		}
+
+		void run(RemapJob job, ILog jobLog) throws Exception {
+			RemapMetrics metrics = job.metricsFile != null ? new RemapMetrics() : null;
+
+			lock.writeLock().lock();
+			try {
+				log.target = jobLog;
+				base.setMetrics(metrics);
+				base.setThreads(job.threads);
+				refresh(job, jobLog);
+				// Downgraded, so no reload can slip in before the job starts
+				lock.readLock().lock();
+			} finally {
+				log.target = null;
+				base.setMetrics(null);
+				lock.writeLock().unlock();
+			}
+
+			try {
+				SMRemapper remapper = base.fork(jobLog);
+				job.configureRemap(remapper);
+				remapper.setMetrics(metrics);
+				job.remap(remapper);
+			} finally {
+				lock.readLock().unlock();
+			}
+
+			if (metrics != null) {
+				metrics.writeJson(job.metricsFile);
+			}
+		}
+
+		/**
+		 * Loads the mapping and libraries that changed since the last job
+		 */
+		private void refresh(RemapJob job, ILog jobLog) throws IOException {
+			Stamp current = new Stamp(job.mapping);
+			if (!current.equals(mapping)) {
+				// Forgotten first, a mapping that fails to load is loaded again by the next job
+				mapping = null;
+				base.resetMappings();
+				job.loadMapping(base);
+				mapping = current;
+			}
+
+			List<File> libs = job.listLibs();
+			Map<File, Stamp> stamps = new HashMap<>();
+			List<File> changed = new ArrayList<>();
+			for (File lib : libs) {
+				Stamp stamp = new Stamp(lib);
+				stamps.put(lib, stamp);
+				if (!stamp.equals(libraries.get(lib))) {
+					changed.add(lib);
+				}
+			}
+			if (changed.isEmpty() && stamps.size() == libraries.size()) {
+				return;
+			}
+
+			jobLog.log("Loading libs...");
+			libraries = new HashMap<>();
+			if (lazyLibraries) {
+				// Indexing only reads the names of the classes, the index is simply built again
+				base.resetClasses();
+				base.loadLibs(libs);
+			} else {
+				loaded.keySet().retainAll(stamps.keySet());
+				loaded.keySet().removeAll(changed);
+				base.reloadLibs(libs, loaded);
+				// Libraries that failed to load are tried again by the next job
+				stamps.keySet().retainAll(loaded.keySet());
+			}
+			libraries = stamps;
+		}
+	}
+
+	/**
+	 * The size and modification time of a file, if neither changed the file
+	 * is taken to be the same
+	 */
+	private static final class Stamp {
+		private final long length, modified;
+
+		Stamp(File file) {
+			length = file.length();
+			modified = file.lastModified();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Stamp)) {
+				return false;
+			}
+			Stamp other = (Stamp) obj;
+			return length == other.length && modified == other.modified;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (length * 31 + modified);
+		}
+	}
+}
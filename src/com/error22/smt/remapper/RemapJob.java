@@ -0,0 +1,210 @@
+package com.error22.smt.remapper;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The arguments of one remap from the command line, see SMRemapper.main(...).
+ * Split into what is needed to load the mappings and libraries and what only
+ * applies to the remap itself, so the daemon can keep the first part loaded
+ * between jobs.
+ */
+final class RemapJob {
+	File input, output, mapping, libsFolder;
+	boolean reverse, keepSource;
+	int threads = 1;
+	File compiled;
+	boolean symbolTables;
+	boolean incremental;
+	File libraryCache;
+	boolean lazyLibraries;
+	File metricsFile;
+	boolean streaming;
+	boolean poolRewrite, verifyPoolRewrite;
+
+	/**
+	 * Parses the arguments of a remap, {input} {output} {mapping} {libs folder}
+	 * {reverse} {keep source} [options]
+	 *
+	 * @throws IllegalArgumentException
+	 *             If an option is not known or its value is not valid
+	 */
+	static RemapJob parse(String[] args) {
+		RemapJob job = new RemapJob();
+		job.input = new File(args[0]);
+		job.output = new File(args[1]);
+		job.mapping = new File(args[2]);
+		job.libsFolder = new File(args[3]);
+		job.reverse = args[4].equalsIgnoreCase("true");
+		job.keepSource = args[5].equalsIgnoreCase("true");
+
+		for (int i = 6; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.startsWith("--threads=")) {
+				job.threads = parseThreads(arg.substring("--threads=".length()));
+			} else if (arg.startsWith("--compiled=")) {
+				job.compiled = new File(arg.substring("--compiled=".length()));
+			} else if (arg.equals("--symbol-tables")) {
+				job.symbolTables = true;
+			} else if (arg.equals("--incremental")) {
+				job.incremental = true;
+			} else if (arg.startsWith("--lib-cache=")) {
+				job.libraryCache = new File(arg.substring("--lib-cache=".length()));
+			} else if (arg.equals("--lazy-libs")) {
+				job.lazyLibraries = true;
+			} else if (arg.startsWith("--metrics=")) {
+				job.metricsFile = new File(arg.substring("--metrics=".length()));
+			} else if (arg.equals("--streaming")) {
+				job.streaming = true;
+			} else if (arg.equals("--pool-rewrite")) {
+				job.poolRewrite = true;
+			} else if (arg.equals("--verify-pool-rewrite")) {
+				job.poolRewrite = true;
+				job.verifyPoolRewrite = true;
+			} else {
+				throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		}
+		return job;
+	}
+
+	private static int parseThreads(String value) {
+		int threads;
+		try {
+			threads = Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("--threads needs a number, got " + value);
+		}
+		if (threads < 1) {
+			throw new IllegalArgumentException("--threads needs at least one thread, got " + threads);
+		}
+		return threads;
+	}
+
+	/**
+	 * @return The arguments again with every path made absolute, so they mean
+	 *         the same to a daemon running in another directory
+	 */
+	String[] toArguments() {
+		List<String> args = new ArrayList<>();
+		args.add(input.getAbsolutePath());
+		args.add(output.getAbsolutePath());
+		args.add(mapping.getAbsolutePath());
+		args.add(libsFolder.getAbsolutePath());
+		args.add(Boolean.toString(reverse));
+		args.add(Boolean.toString(keepSource));
+		args.add("--threads=" + threads);
+		if (compiled != null) {
+			args.add("--compiled=" + compiled.getAbsolutePath());
+		}
+		if (symbolTables) {
+			args.add("--symbol-tables");
+		}
+		if (incremental) {
+			args.add("--incremental");
+		}
+		if (libraryCache != null) {
+			args.add("--lib-cache=" + libraryCache.getAbsolutePath());
+		}
+		if (lazyLibraries) {
+			args.add("--lazy-libs");
+		}
+		if (metricsFile != null) {
+			args.add("--metrics=" + metricsFile.getAbsolutePath());
+		}
+		if (streaming) {
+			args.add("--streaming");
+		}
+		if (verifyPoolRewrite) {
+			args.add("--verify-pool-rewrite");
+		} else if (poolRewrite) {
+			args.add("--pool-rewrite");
+		}
+		return args.toArray(new String[args.size()]);
+	}
+
+	/**
+	 * @return Everything that decides what a remapper loads, jobs with the
+	 *         same key can share one
+	 */
+	String getLoadKey() {
+		return mapping.getAbsolutePath() + "|" + reverse + "|" + compiled + "|" + libsFolder.getAbsolutePath() + "|"
+				+ symbolTables + "|" + libraryCache + "|" + lazyLibraries;
+	}
+
+	/**
+	 * Applies the settings used while loading the mappings and libraries
+	 */
+	void configureLoading(SMRemapper remapper) {
+		remapper.setThreads(threads);
+		remapper.setSymbolTables(symbolTables);
+		remapper.setLazyLibraries(lazyLibraries);
+		if (libraryCache != null) {
+			libraryCache.mkdirs();
+			remapper.setLibraryCache(libraryCache);
+		}
+	}
+
+	/**
+	 * Applies the settings used while remapping
+	 */
+	void configureRemap(SMRemapper remapper) {
+		remapper.setKeepSource(keepSource);
+		remapper.setThreads(threads);
+		remapper.setIncremental(incremental);
+		remapper.setStreaming(streaming);
+		remapper.setPoolRewrite(poolRewrite, verifyPoolRewrite);
+	}
+
+	void loadMapping(SMRemapper remapper) throws IOException {
+		if (compiled != null) {
+			remapper.loadMapping(mapping, compiled, reverse);
+		} else {
+			remapper.loadMapping(mapping, reverse);
+		}
+	}
+
+	/**
+	 * @return Every file in the libs folder, sorted so it is always the same
+	 *         library that wins when a class is in more than one
+	 */
+	List<File> listLibs() throws IOException {
+		File[] libs = libsFolder.listFiles();
+		if (libs == null) {
+			throw new IOException("Libs folder does not exist!");
+		}
+		Arrays.sort(libs);
+		return Arrays.asList(libs);
+	}
+
+	/**
+	 * Remaps the input, or every jar in it into the output folder under the
+	 * same name if it is a folder
+	 */
+	void remap(SMRemapper remapper) throws Exception {
+		if (!input.isDirectory()) {
+			remapper.remap(input, output);
+			return;
+		}
+
+		File[] jars = input.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".jar");
+			}
+		});
+		Arrays.sort(jars);
+		output.mkdirs();
+		Map<File, File> jobs = new LinkedHashMap<>();
+		for (File jar : jars) {
+			jobs.put(jar, new File(output, jar.getName()));
+		}
+		remapper.remapBatch(jobs);
+	}
+}
@@ -0,0 +1,171 @@
+package com.error22.smt.remapper;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Stored next to the output of an incremental remap. For every class it
+ * records the hash of the input bytes and every lookup the remapper answered
+ * while transforming it, along with a digest of the answers. If the input is
+ * unchanged and replaying the lookups gives the same digest, the class would
+ * be transformed to the same bytes and can be copied from the previous
+ * output.
+ */
+final class RemapManifest {
+	private static final int MAGIC = 0x534D5449; // SMTI
+	private static final int VERSION = 1;
+	private static final HashFunction HASH = Hashing.murmur3_128();
+
+	private final boolean keepSource;
+	private final ConcurrentMap<String, Entry> entries;
+
+	RemapManifest(boolean keepSource) {
+		this.keepSource = keepSource;
+		entries = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * @return The manifest stored next to the given output
+	 */
+	static File getFile(File output) {
+		return new File(output.getPath() + ".smtinc");
+	}
+
+	static byte[] hashClass(byte[] data) {
+		return HASH.hashBytes(data).asBytes();
+	}
+
+	/**
+	 * Hashes the answers to the recorded lookups, in the order they were
+	 * recorded
+	 */
+	static byte[] digest(List<String> results) {
+		Hasher hasher = HASH.newHasher();
+		for (String result : results) {
+			if (result == null) {
+				hasher.putByte((byte) 0);
+			} else {
+				hasher.putByte((byte) 1);
+				hasher.putString(result, StandardCharsets.UTF_8);
+				hasher.putByte((byte) 0);
+			}
+		}
+		return hasher.hash().asBytes();
+	}
+
+	Entry get(String className) {
+		return entries.get(className);
+	}
+
+	void put(String className, Entry entry) {
+		entries.put(className, entry);
+	}
+
+	/**
+	 * Reads a manifest
+	 *
+	 * @return The manifest, or null if it is missing, from another version or
+	 *         was written with a different keepSource setting
+	 */
+	static RemapManifest read(File file, boolean keepSource) throws IOException {
+		if (!file.isFile()) {
+			return null;
+		}
+
+		BinaryInput in = new BinaryInput(BinaryInput.read(file));
+		ByteBuffer buffer = in.getBuffer();
+		if (buffer.remaining() < 9 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+				|| (buffer.get() != 0) != keepSource) {
+			return null;
+		}
+		in.readStrings();
+
+		RemapManifest manifest = new RemapManifest(keepSource);
+		for (int i = in.readVarInt(); i > 0; i--) {
+			String className = in.readString();
+			byte[] inputHash = in.readBytes();
+			String outputName = in.readString();
+			String[] queries = new String[in.readVarInt()];
+			for (int q = 0; q < queries.length; q++) {
+				queries[q] = in.readString();
+			}
+			manifest.put(className, new Entry(inputHash, outputName, queries, in.readBytes()));
+		}
+		return manifest;
+	}
+
+	void write(File file) throws IOException {
+		BinaryOutput body = new BinaryOutput();
+
+		// Sorted so the same run writes the same manifest
+		Map<String, Entry> sorted = new TreeMap<>(entries);
+		body.writeVarInt(sorted.size());
+		for (Map.Entry<String, Entry> e : sorted.entrySet()) {
+			Entry entry = e.getValue();
+			body.writeString(e.getKey());
+			body.writeBytes(entry.inputHash);
+			body.writeString(entry.outputName);
+			body.writeVarInt(entry.queries.length);
+			for (String query : entry.queries) {
+				body.writeString(query);
+			}
+			body.writeBytes(entry.digest);
+		}
+
+		// Written next to the manifest and moved over it, a failed write leaves the old one intact
+		File temp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeBoolean(keepSource);
+			body.writeTo(out);
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	static final class Entry {
+		private final byte[] inputHash;
+		private final String outputName;
+		private final String[] queries;
+		private final byte[] digest;
+
+		Entry(byte[] inputHash, String outputName, String[] queries, byte[] digest) {
+			this.inputHash = inputHash;
+			this.outputName = outputName;
+			this.queries = queries;
+			this.digest = digest;
+		}
+
+		byte[] getInputHash() {
+			return inputHash;
+		}
+
+		String getOutputName() {
+			return outputName;
+		}
+
+		String[] getQueries() {
+			return queries;
+		}
+
+		byte[] getDigest() {
+			return digest;
+		}
+	}
+}
@@ -0,0 +1,293 @@
+package com.error22.smt.remapper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Numbers collected by a SMRemapper while it loads and remaps, see
+ * SMRemapper.setMetrics(RemapMetrics). Everything adds up over every call
+ * made while the metrics were set, and can be written out as JSON to compare
+ * runs.
+ */
+public final class RemapMetrics {
+	public static final String LOAD_MAPPING = "loadMapping", LOAD_LIBS = "loadLibs", FIRST_PASS = "firstPass",
+			OVERRIDE_GROUPS = "overrideGroups", SECOND_PASS = "secondPass";
+	private static final int SLOWEST = 10;
+
+	private final Map<String, Long> phases = new LinkedHashMap<>();
+	private final LongAdder classes = new LongAdder(), reusedClasses = new LongAdder(),
+			copiedClasses = new LongAdder(), rewrittenClasses = new LongAdder();
+	private final LongAdder bytesIn = new LongAdder(), bytesOut = new LongAdder();
+	private final LongAdder fieldHits = new LongAdder(), fieldMisses = new LongAdder();
+	private final LongAdder methodHits = new LongAdder(), methodMisses = new LongAdder();
+	private final LongAdder descriptorHits = new LongAdder(), descriptorMisses = new LongAdder();
+	private final LongAdder unmappedClasses = new LongAdder(), unmappedFields = new LongAdder(),
+			unmappedMethods = new LongAdder();
+	// The fastest of the slowest classes is at the head so it can be replaced
+	private final PriorityQueue<SlowClass> slowest = new PriorityQueue<>(SLOWEST + 1, new Comparator<SlowClass>() {
+		@Override
+		public int compare(SlowClass a, SlowClass b) {
+			return Long.compare(a.nanos, b.nanos);
+		}
+	});
+
+	/**
+	 * Adds the time since start, from System.nanoTime(), to a phase
+	 */
+	synchronized void phase(String name, long start) {
+		long elapsed = System.nanoTime() - start;
+		Long total = phases.get(name);
+		phases.put(name, total != null ? total + elapsed : elapsed);
+	}
+
+	/**
+	 * Records a class written by the second pass
+	 */
+	void remapped(String name, int in, int out, long nanos) {
+		classes.increment();
+		bytesIn.add(in);
+		bytesOut.add(out);
+
+		synchronized (slowest) {
+			if (slowest.size() < SLOWEST || slowest.peek().nanos < nanos) {
+				slowest.add(new SlowClass(name, nanos));
+				if (slowest.size() > SLOWEST) {
+					slowest.poll();
+				}
+			}
+		}
+	}
+
+	void reused() {
+		reusedClasses.increment();
+	}
+
+	void copied() {
+		copiedClasses.increment();
+	}
+
+	void rewritten() {
+		rewrittenClasses.increment();
+	}
+
+	void resolution(boolean field, boolean hit) {
+		(field ? hit ? fieldHits : fieldMisses : hit ? methodHits : methodMisses).increment();
+	}
+
+	void descriptor(boolean hit) {
+		(hit ? descriptorHits : descriptorMisses).increment();
+	}
+
+	void unmappedClass() {
+		unmappedClasses.increment();
+	}
+
+	void unmappedMember(boolean field) {
+		(field ? unmappedFields : unmappedMethods).increment();
+	}
+
+	/**
+	 * @return The time spent in a phase in milliseconds
+	 */
+	public synchronized double getPhaseMillis(String name) {
+		Long nanos = phases.get(name);
+		return nanos != null ? nanos / 1e6 : 0;
+	}
+
+	public long getClasses() {
+		return classes.sum();
+	}
+
+	public long getReusedClasses() {
+		return reusedClasses.sum();
+	}
+
+	/**
+	 * @return The number of classes copied as they were since nothing in them
+	 *         is mapped
+	 */
+	public long getCopiedClasses() {
+		return copiedClasses.sum();
+	}
+
+	/**
+	 * @return The number of classes remapped by rewriting their constant pool
+	 */
+	public long getRewrittenClasses() {
+		return rewrittenClasses.sum();
+	}
+
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	/**
+	 * @return The fraction of hierarchy lookups answered by the resolution
+	 *         cache
+	 */
+	public double getFieldHitRate() {
+		return rate(fieldHits.sum(), fieldMisses.sum());
+	}
+
+	public double getMethodHitRate() {
+		return rate(methodHits.sum(), methodMisses.sum());
+	}
+
+	/**
+	 * @return The fraction of descriptors and signatures that were already
+	 *         remapped
+	 */
+	public double getDescriptorHitRate() {
+		return rate(descriptorHits.sum(), descriptorMisses.sum());
+	}
+
+	private static double rate(long hits, long misses) {
+		return hits + misses > 0 ? (double) hits / (hits + misses) : 0;
+	}
+
+	/**
+	 * @return The number of class lookups that did not find a mapping
+	 */
+	public long getUnmappedClasses() {
+		return unmappedClasses.sum();
+	}
+
+	public long getUnmappedFields() {
+		return unmappedFields.sum();
+	}
+
+	public long getUnmappedMethods() {
+		return unmappedMethods.sum();
+	}
+
+	/**
+	 * @return The names of the classes that took longest to remap, slowest
+	 *         first
+	 */
+	public List<String> getSlowestClasses() {
+		List<String> names = new ArrayList<>();
+		for (SlowClass c : sortedSlowest()) {
+			names.add(c.name);
+		}
+		return names;
+	}
+
+	private List<SlowClass> sortedSlowest() {
+		List<SlowClass> sorted;
+		synchronized (slowest) {
+			sorted = new ArrayList<>(slowest);
+		}
+		Collections.sort(sorted, Collections.reverseOrder(slowest.comparator()));
+		return sorted;
+	}
+
+	public String toJson() {
+		StringBuilder json = new StringBuilder("{\n");
+
+		json.append("  \"phases\": {");
+		synchronized (this) {
+			String separator = "\n";
+			for (Map.Entry<String, Long> e : phases.entrySet()) {
+				json.append(separator).append("    ").append(quote(e.getKey())).append(": ")
+						.append(number(e.getValue() / 1e6));
+				separator = ",\n";
+			}
+		}
+		json.append("\n  },\n");
+
+		// Rates are over the second pass, that is where the classes are transformed
+		double seconds = getPhaseMillis(SECOND_PASS) / 1000;
+		json.append("  \"classes\": ").append(getClasses()).append(",\n");
+		json.append("  \"reusedClasses\": ").append(getReusedClasses()).append(",\n");
+		json.append("  \"copiedClasses\": ").append(getCopiedClasses()).append(",\n");
+		json.append("  \"rewrittenClasses\": ").append(getRewrittenClasses()).append(",\n");
+		json.append("  \"bytesIn\": ").append(getBytesIn()).append(",\n");
+		json.append("  \"bytesOut\": ").append(getBytesOut()).append(",\n");
+		json.append("  \"classesPerSecond\": ").append(number(seconds > 0 ? getClasses() / seconds : 0)).append(",\n");
+		json.append("  \"bytesPerSecond\": ").append(number(seconds > 0 ? getBytesIn() / seconds : 0)).append(",\n");
+
+		json.append("  \"resolutionCache\": {\n");
+		json.append("    \"fields\": ");
+		appendCache(json, fieldHits.sum(), fieldMisses.sum());
+		json.append(",\n    \"methods\": ");
+		appendCache(json, methodHits.sum(), methodMisses.sum());
+		json.append("\n  },\n");
+
+		json.append("  \"descriptorCache\": ");
+		appendCache(json, descriptorHits.sum(), descriptorMisses.sum());
+		json.append(",\n");
+
+		json.append("  \"mappingMisses\": {\n");
+		json.append("    \"classes\": ").append(getUnmappedClasses()).append(",\n");
+		json.append("    \"fields\": ").append(getUnmappedFields()).append(",\n");
+		json.append("    \"methods\": ").append(getUnmappedMethods()).append("\n");
+		json.append("  },\n");
+
+		json.append("  \"slowestClasses\": [");
+		String separator = "\n";
+		for (SlowClass c : sortedSlowest()) {
+			json.append(separator).append("    {\"name\": ").append(quote(c.name)).append(", \"millis\": ")
+					.append(number(c.nanos / 1e6)).append("}");
+			separator = ",\n";
+		}
+		json.append("\n  ]\n}\n");
+		return json.toString();
+	}
+
+	private static void appendCache(StringBuilder json, long hits, long misses) {
+		json.append("{\"hits\": ").append(hits).append(", \"misses\": ").append(misses).append(", \"hitRate\": ")
+				.append(number(rate(hits, misses))).append("}");
+	}
+
+	private static String number(double value) {
+		return String.format(Locale.ROOT, "%.3f", value);
+	}
+
+	private static String quote(String text) {
+		StringBuilder quoted = new StringBuilder("\"");
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '"' || c == '\\') {
+				quoted.append('\\').append(c);
+			} else if (c < 0x20) {
+				quoted.append(String.format("\\u%04x", (int) c));
+			} else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	public void writeJson(File file) throws IOException {
+		try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+			out.write(toJson());
+		}
+	}
+
+	private static final class SlowClass {
+		private final String name;
+		private final long nanos;
+
+		SlowClass(String name, long nanos) {
+			this.name = name;
+			this.nanos = nanos;
+		}
+	}
+}
@@ -42,7 +42,8 @@ public class RemapperClassAdapter extends ClassVisitor {
 	@Override
 	public void visitOuterClass(String owner, String name, String desc) {
 		String newOwner = remapper.mapType(owner);
-		String newName = name != null ? remapper.mapMethodName(owner, name, desc) : null;
+		String newName = name != null
+				? remapper.mapMethodName(owner, name, desc, remapper.getMethodAccess(owner, name, desc), true) : null;
 		String newDesc = desc != null ? remapper.mapMethodDesc(desc) : null;
 
 		super.visitOuterClass(newOwner, newName, newDesc);
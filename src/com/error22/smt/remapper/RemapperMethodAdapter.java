@@ -6,9 +6,6 @@ import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.commons.RemappingAnnotationAdapter;
-import org.objectweb.asm.tree.ClassNode;
-import org.objectweb.asm.tree.FieldNode;
-import org.objectweb.asm.tree.MethodNode;
 
 public class RemapperMethodAdapter extends MethodVisitor {
 	private SMRemapper remapper;
@@ -61,39 +58,15 @@ public class RemapperMethodAdapter extends MethodVisitor {
 	@Override
 	public void visitFieldInsn(int opcode, String owner, String name, String desc) {
 		super.visitFieldInsn(opcode, remapper.mapType(owner),
-				remapper.mapFieldName(owner, name, desc, findAccess(true, owner, name, desc), true),
+				remapper.mapFieldName(owner, name, desc, remapper.getFieldAccess(owner, name, desc), true),
 				remapper.mapDesc(desc));
 	}
 
-	private int findAccess(boolean field, String owner, String name, String desc) {
-		int access = -1;
-		ClassNode clazz = remapper.getClass(owner);
-		if (clazz != null) {
-			if (field) {
-				for (FieldNode f : clazz.fields) {
-					if (f.name.equals(name) && f.desc.equals(desc)) {
-						access = f.access;
-						break;
-					}
-				}
-			} else {
-				for (MethodNode m : clazz.methods) {
-					if (m.name.equals(name) && m.desc.equals(desc)) {
-						access = m.access;
-						break;
-					}
-				}
-			}
-		}
-
-		return access;
-	}
-
 	@Override
 	public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
 
 		super.visitMethodInsn(opcode, remapper.mapType(owner),
-				remapper.mapMethodName(owner, name, desc, findAccess(false, owner, name, desc), true),
+				remapper.mapMethodName(owner, name, desc, remapper.getMethodAccess(owner, name, desc), true),
 				remapper.mapMethodDesc(desc), itf);
 	}
 
@@ -0,0 +1,34 @@
+package com.error22.smt.remapper;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers what a member resolved to after walking the class hierarchy,
+ * including members that did not resolve to any mapping. Safe to read while
+ * other threads are resolving.
+ */
+final class ResolutionCache {
+	/**
+	 * Stored for members that are not mapped anywhere in the hierarchy
+	 */
+	static final String UNMAPPED = new String("<unmapped>");
+
+	private final ConcurrentMap<StringTriple, String> resolved = new ConcurrentHashMap<>();
+
+	/**
+	 * @return The resolved name, {@link #UNMAPPED} or null if the member has
+	 *         not been resolved yet
+	 */
+	String get(StringTriple member) {
+		return resolved.get(member);
+	}
+
+	void put(StringTriple member, String name) {
+		resolved.put(member, name != null ? name : UNMAPPED);
+	}
+
+	void clear() {
+		resolved.clear();
+	}
+}
@@ -1,27 +1,40 @@
 package com.error22.smt.remapper;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
-
-import com.error22.smt.remapper.parser.AstralMapLexer;
-import com.error22.smt.remapper.parser.AstralMapParser;
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
-import org.antlr.v4.runtime.ANTLRFileStream;
-import org.antlr.v4.runtime.ANTLRInputStream;
-import org.antlr.v4.runtime.CommonTokenStream;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.commons.Remapper;
@@ -29,24 +42,92 @@ import org.objectweb.asm.tree.ClassNode;
 
 public class SMRemapper extends Remapper {
 	public static final int CLASS_LENGTH = ".class".length();
+	private static final int DESCRIPTOR_CACHE_SIZE = 1 << 15;
+	private static final ThreadLocal<StringTriple> PROBE = new ThreadLocal<StringTriple>() {
+		@Override
+		protected StringTriple initialValue() {
+			return new StringTriple();
+		}
+	};
+	// Set while a class is transformed in incremental mode
+	private static final ThreadLocal<DependencyRecorder> RECORDER = new ThreadLocal<>();
+	// The class being transformed by this thread
+	private static final ThreadLocal<ClassReader> CURRENT = new ThreadLocal<>();
+	// Its node, read the first time an annotation asks for it
+	private static final ThreadLocal<ClassNode> CURRENT_NODE = new ThreadLocal<>();
+	// How many classes each worker thread can have waiting to be written
+	private static final int WINDOW_PER_THREAD = 4;
 
 	// From the map file
-	private BiMap<String, String> classMap;
-	private BiMap<StringTriple, StringTriple> fieldMap, methodMap;
-
-	private Map<String, ClassNode> classNodeMap;
-	private Map<String, JarEntry> jarMap;
-	private JarFile jar;
+	private MappingStore mappings;
+
+	private Map<String, ClassInfo> classInfoMap;
+	// The remapper this one was forked from, its classes are looked up after our own
+	private SMRemapper parent;
+	// Libraries loaded in lazy mode, their classes are only parsed when asked for
+	private LibraryIndex libraryIndex;
+	private boolean lazyLibraries;
+	private Interner<String> interner;
+	// Hierarchy lookups, these depend on both the mappings and the loaded classes
+	private ResolutionCache fieldCache, methodCache;
+	// Every inherited method lookup in the hierarchy of the input, worked out before the second pass
+	private volatile OverrideGroups overrideGroups;
+	// What map() returned, this only depends on the mappings
+	private ConcurrentMap<String, String> typeCache;
+	// Remapped descriptors and signatures, bounded since every generic signature ends up in them
+	private DescriptorCache descCache, methodDescCache, signatureCache, typeSignatureCache;
+	// The original names of every mapped field and method, built the first time a class is scanned
+	private volatile Set<String> memberNames;
 	private boolean keepSource;
+	private int threads = 1;
+	private boolean incremental;
+	private boolean streaming;
+	private boolean poolRewrite, verifyPoolRewrite;
+	private File libraryCache;
+	private RemapMetrics metrics;
 	private ILog log;
 
 	public SMRemapper(ILog log) {
 		this.log = log;
-		classMap = HashBiMap.create();
-		fieldMap = HashBiMap.create();
-		methodMap = HashBiMap.create();
-		classNodeMap = new HashMap<>();
-		jarMap = new HashMap<>();
+		mappings = new BiMapStore();
+		classInfoMap = new ConcurrentHashMap<>();
+		interner = Interners.newWeakInterner();
+		libraryIndex = new LibraryIndex(interner, log);
+		fieldCache = new ResolutionCache();
+		methodCache = new ResolutionCache();
+		typeCache = new ConcurrentHashMap<>();
+		descCache = new DescriptorCache(DESCRIPTOR_CACHE_SIZE);
+		methodDescCache = new DescriptorCache(DESCRIPTOR_CACHE_SIZE);
+		signatureCache = new DescriptorCache(DESCRIPTOR_CACHE_SIZE);
+		typeSignatureCache = new DescriptorCache(DESCRIPTOR_CACHE_SIZE);
+	}
+
+	/**
+	 * Creates a remapper for one job of remapBatch(...). It shares the
+	 * mappings, the loaded libraries and the caches that only depend on the
+	 * mappings with the parent, but has its own input classes and hierarchy
+	 * lookups layered over the parent's classes.
+	 */
+	private SMRemapper(SMRemapper parent, ILog log) {
+		this.log = log;
+		mappings = parent.mappings;
+		classInfoMap = new ConcurrentHashMap<>();
+		this.parent = parent;
+		interner = parent.interner;
+		libraryIndex = parent.libraryIndex;
+		fieldCache = new ResolutionCache();
+		methodCache = new ResolutionCache();
+		typeCache = parent.typeCache;
+		descCache = parent.descCache;
+		methodDescCache = parent.methodDescCache;
+		signatureCache = parent.signatureCache;
+		typeSignatureCache = parent.typeSignatureCache;
+		keepSource = parent.keepSource;
+		incremental = parent.incremental;
+		streaming = parent.streaming;
+		poolRewrite = parent.poolRewrite;
+		verifyPoolRewrite = parent.verifyPoolRewrite;
+		metrics = parent.metrics;
 	}
 
 	/**
@@ -61,18 +142,41 @@ public class SMRemapper extends Remapper {
 	 * Resets any mappings loaded by loadMapping(...)
 	 */
 	public void resetMappings() {
-		classMap.clear();
-		fieldMap.clear();
-		methodMap.clear();
+		mappings.clear();
+		invalidateCaches();
 	}
 
 	/**
 	 * Resets all class data caused by loadLib(...) or remap(...)
 	 */
 	public void resetClasses() {
-		classNodeMap.clear();
-		jarMap.clear();
-		jar = null;
+		classInfoMap.clear();
+		libraryIndex.clear();
+		invalidateResolution();
+	}
+
+	/**
+	 * Drops everything that was worked out from the current mappings and
+	 * classes, needs to be called whenever the mappings change
+	 */
+	private void invalidateCaches() {
+		invalidateResolution();
+		memberNames = null;
+		typeCache.clear();
+		descCache.clear();
+		methodDescCache.clear();
+		signatureCache.clear();
+		typeSignatureCache.clear();
+	}
+
+	/**
+	 * Drops the hierarchy lookups, needs to be called whenever the classes
+	 * change. Class names and descriptors only depend on the mappings.
+	 */
+	private void invalidateResolution() {
+		fieldCache.clear();
+		methodCache.clear();
+		overrideGroups = null;
 	}
 
 	/**
@@ -88,329 +192,951 @@ public class SMRemapper extends Remapper {
 	 *             Normally if the mapping could not be read
 	 */
 	public void loadMapping(File mapping, boolean reverse) throws IOException {
+		long start = System.nanoTime();
 		log.log("Loading mappings...");
+		parseMapping(mapping);
+		finishLoading(reverse);
+		phase(RemapMetrics.LOAD_MAPPING, start);
+	}
 
-		// Parse with ANTLR
-		ANTLRInputStream input = new ANTLRFileStream(mapping.getAbsolutePath(), "UTF-8");
-		AstralMapLexer lexer = new AstralMapLexer(input);
-		CommonTokenStream tokens = new CommonTokenStream(lexer);
-		AstralMapParser parser = new AstralMapParser(tokens);
-		AstralMapParser.MapFileContext mapfile = parser.mapFile();
+	/**
+	 * Loads the mappings from their compiled form, compiling them first if the
+	 * compiled file is missing or was built from a different version of the
+	 * mapping. Member signatures in a compiled file are resolved against the
+	 * classes of that mapping only.
+	 * 
+	 * @param mapping
+	 *            The mapping the compiled file is built from
+	 * @param compiled
+	 *            The compiled file to use or create
+	 * @param reverse
+	 *            If the mappings should be reversed
+	 * @throws IOException
+	 *             Normally if the mapping or compiled file could not be read
+	 */
+	public void loadMapping(File mapping, File compiled, boolean reverse) throws IOException {
+		long start = System.nanoTime();
+		byte[] hash = CompiledMapping.hash(mapping);
+		if (!CompiledMapping.isCurrent(compiled, hash)) {
+			log.log("Compiled mappings are out of date");
+			compileMapping(mapping, compiled, hash);
+		}
 
-		// First pass: Load up class names. We need this to figure out if members refer to old or new names.
-		log.log("    Loading classes...");
-		(new ClassScanner(mapfile)).scanClasses();
+		log.log("Loading compiled mappings...");
+		CompiledMapping.read(compiled, mappings);
+		finishLoading(reverse);
+		phase(RemapMetrics.LOAD_MAPPING, start);
+	}
 
-		// The next two can happen interchangably.
-		log.log("    Loading fields...");
-		(new FieldScanner(mapfile)).scanClasses();
+	/**
+	 * Compiles the mappings into a binary file that can be loaded without
+	 * parsing, see loadMapping(File, File, boolean). This does not change the
+	 * loaded mappings.
+	 * 
+	 * @param mapping
+	 *            The mapping to compile
+	 * @param compiled
+	 *            The file to write
+	 * @throws IOException
+	 *             Normally if the mapping could not be read or the output
+	 *             could not be written
+	 */
+	public void compileMapping(File mapping, File compiled) throws IOException {
+		compileMapping(mapping, compiled, CompiledMapping.hash(mapping));
+	}
+
+	private void compileMapping(File mapping, File compiled, byte[] hash) throws IOException {
+		log.log("Compiling mappings...");
+		SMRemapper compiler = new SMRemapper(log);
+		compiler.parseMapping(mapping);
+		CompiledMapping.write(compiled, hash, compiler.mappings);
+	}
+
+	private void parseMapping(File mapping) throws IOException {
+		// Classes are loaded while reading, members once every class is known since we need the class names to figure
+		// out if their signatures refer to old or new names.
+		MappingLoader loader = new MappingLoader(mappings);
+		log.log("    Loading classes...");
+		loader.read(mapping);
 
-		log.log("    Loading methods...");
-		(new MethodScanner(mapfile)).scanClasses();
+		log.log("    Loading members...");
+		loader.resolveMembers();
+	}
 
+	private void finishLoading(boolean reverse) {
 		// We're cheating here, just reverse them after everyone's done
 		if (reverse) {
-			classMap = classMap.inverse();
-			fieldMap = fieldMap.inverse();
-			methodMap = methodMap.inverse();
-		}
-	}
-
-	/**
-	 * Handles producing JRE type signatures from AstralMap syntax.
-	 *
-	 * Based on http://journals.ecs.soton.ac.uk/java/tutorial/native1.1/implementing/method.html
- 	 */
-	public class SignatureUtils {
-		// Wish I could move this to its own file, but I need classMap here.
-		public String make(AstralMapParser.PrimitiveTypeContext ptc, boolean _) {
-			return make(ptc);
-		}
-
-		public String make(AstralMapParser.PrimitiveTypeContext ptc) {
-			// Basic type, just look it up
-			switch (ptc.getText()) {
-				case "boolean":
-					return "Z";
-				case "byte":
-					return "B";
-				case "char":
-					return "C";
-				case "short":
-					return "S";
-				case "int":
-					return "I";
-				case "long":
-					return "J";
-				case "float":
-					return "F";
-				case "double":
-					return "D";
-				default:
-					throw new RuntimeException("Got an unknown primitive type: "+ptc.getText());
+			mappings = mappings.inverse();
+		}
+		invalidateCaches();
+	}
+
+	/**
+	 * Loads a library
+	 * 
+	 * @param path
+	 *            The library to load
+	 * @throws Exception
+	 *             Normally if the library is empty or corrupt
+	 */
+	public void loadLib(File path) throws Exception {
+		long start = System.nanoTime();
+		if (lazyLibraries) {
+			log.log("    Indexing lib " + path.getPath() + "...");
+			libraryIndex.add(path);
+		} else {
+			ExecutorService pool = MoreExecutors.newDirectExecutorService();
+			classInfoMap.putAll(startLib(path, pool).call());
+		}
+		invalidateResolution();
+		phase(RemapMetrics.LOAD_LIBS, start);
+	}
+
+	/**
+	 * Loads several libraries at once, the jars and the classes in them are
+	 * read on the worker threads set by setThreads(...). If more than one of
+	 * the libraries has a class the first one listed wins. Libraries that can
+	 * not be read are logged and skipped.
+	 * 
+	 * @param paths
+	 *            The libraries to load
+	 */
+	public void loadLibs(Collection<File> paths) throws IOException {
+		long start = System.nanoTime();
+		if (lazyLibraries) {
+			// Added backwards so the first library listed replaces the others
+			List<File> libs = new ArrayList<>(paths);
+			for (int i = libs.size() - 1; i >= 0; i--) {
+				log.log("    Indexing lib " + libs.get(i).getPath() + "...");
+				try {
+					libraryIndex.add(libs.get(i));
+				} catch (IOException e) {
+					log.log("Failed to load lib! " + libs.get(i).getPath() + " " + e.getMessage());
+				}
 			}
+			invalidateResolution();
+			phase(RemapMetrics.LOAD_LIBS, start);
+			return;
 		}
 
-		public String make(AstralMapParser.ClassTypeContext ctc, boolean toOld) {
-			// Normalize to old or new name
-			String classname = ctc.getText();
-			classname = (toOld ? classMap.inverse() : classMap).getOrDefault(classname, classname);
-			return "L" + classname.replace('.', '/') + ";";
+		Map<File, Map<String, ClassInfo>> loaded = new HashMap<>();
+		readLibs(paths, loaded);
+		addLibs(new ArrayList<>(paths), loaded);
+		invalidateResolution();
+		phase(RemapMetrics.LOAD_LIBS, start);
+	}
+
+	/**
+	 * Replaces the loaded libraries, only parsing the ones that are not
+	 * already given. Lets a long running remapper pick up changed libraries
+	 * without parsing all of them again.
+	 * 
+	 * @param paths
+	 *            The libraries to load, the first one listed wins if a class
+	 *            is in more than one
+	 * @param loaded
+	 *            The classes of libraries that are already parsed, the
+	 *            libraries parsed now are added to it
+	 */
+	void reloadLibs(List<File> paths, Map<File, Map<String, ClassInfo>> loaded) throws IOException {
+		long start = System.nanoTime();
+		List<File> missing = new ArrayList<>();
+		for (File path : paths) {
+			if (!loaded.containsKey(path)) {
+				missing.add(path);
+			}
 		}
+		readLibs(missing, loaded);
+		classInfoMap.clear();
+		addLibs(paths, loaded);
+		invalidateResolution();
+		phase(RemapMetrics.LOAD_LIBS, start);
+	}
 
-		public String make(AstralMapParser.ArrayTypeContext atc, boolean toOld) {
-			// FIXME: Count the dimensions?
-			String prefix = "[";
-			if (atc.classType() != null) {
-				return prefix + make(atc.classType(), toOld);
-			} else if (atc.primitiveType() != null) {
-				return prefix + make(atc.primitiveType());
-			} else {
-				throw new RuntimeException("Unknown array type: " + atc.toString());
+	/**
+	 * Parses the classes of several libraries on the worker threads, the
+	 * libraries that can not be read are logged and left out
+	 */
+	private void readLibs(Collection<File> paths, Map<File, Map<String, ClassInfo>> loaded) throws IOException {
+		ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads)
+				: MoreExecutors.newDirectExecutorService();
+		try {
+			// Every library is started before any is waited on, so all of their classes are parsed together
+			List<File> libs = new ArrayList<>();
+			List<Callable<Map<String, ClassInfo>>> results = new ArrayList<>();
+			for (File path : paths) {
+				try {
+					results.add(startLib(path, pool));
+					libs.add(path);
+				} catch (IOException e) {
+					log.log("Failed to load lib! " + path.getPath() + " " + e.getMessage());
+				}
 			}
+
+			for (int i = 0; i < results.size(); i++) {
+				try {
+					loaded.put(libs.get(i), results.get(i).call());
+				} catch (Exception e) {
+					log.log("Failed to load lib! " + libs.get(i).getPath() + " " + e.getMessage());
+				}
+			}
+		} finally {
+			pool.shutdownNow();
 		}
+	}
 
-		public String make(AstralMapParser.ReferenceTypeContext rtc, boolean toOld) {
-			if (rtc.arrayType() != null) {
-				return make(rtc.arrayType(), toOld);
-			} else if (rtc.classType() != null) {
-				return make(rtc.classType(), toOld);
-			} else {
-				throw new RuntimeException("Unknown type: "+rtc.toString());
+	private void addLibs(List<File> paths, Map<File, Map<String, ClassInfo>> loaded) {
+		// Added backwards so the first library listed overwrites the others
+		for (int i = paths.size() - 1; i >= 0; i--) {
+			Map<String, ClassInfo> classes = loaded.get(paths.get(i));
+			if (classes != null) {
+				classInfoMap.putAll(classes);
 			}
 		}
+	}
 
-		public String make(AstralMapParser.TypeContext tc, boolean toOld) {
-			if (tc.primitiveType() != null) {
-				return make(tc.primitiveType());
-			} else if (tc.referenceType() != null) {
-				return make(tc.referenceType(), toOld);
-			} else {
-				throw new RuntimeException("Unknown type: "+tc.toString());
+	/**
+	 * Starts reading the classes of a library on the pool, or from the
+	 * library cache if it has a current copy
+	 * 
+	 * @return Waits for the classes, closes the library and updates the cache
+	 */
+	private Callable<Map<String, ClassInfo>> startLib(final File path, ExecutorService pool) throws IOException {
+		final File cache = libraryCache != null ? LibraryCache.getFile(libraryCache, path) : null;
+		if (cache != null) {
+			final Map<String, ClassInfo> cached = LibraryCache.read(cache, path, interner);
+			if (cached != null) {
+				log.log("    Loading lib " + path.getPath() + " from cache...");
+				return new Callable<Map<String, ClassInfo>>() {
+					@Override
+					public Map<String, ClassInfo> call() {
+						return cached;
+					}
+				};
 			}
 		}
 
-		public String make(AstralMapParser.MethodDeclarationContext mdc, boolean toOld) {
-			StringBuilder sig = new StringBuilder();
+		log.log("    Loading lib " + path.getPath() + "...");
+		final JarFile libJar = new JarFile(path, false);
+		final Map<String, Future<ClassInfo>> classes = new LinkedHashMap<>();
+		for (Enumeration<JarEntry> entr = libJar.entries(); entr.hasMoreElements();) {
+			final JarEntry entry = entr.nextElement();
+			String name = entry.getName();
 
-			sig.append("(");
-			for (AstralMapParser.ParameterContext ptc: mdc.parameter()) {
-				sig.append(make(ptc, toOld));
+			if (!entry.isDirectory() && name.endsWith(".class")) {
+				name = name.substring(0, name.length() - CLASS_LENGTH);
+				classes.put(name, pool.submit(new Callable<ClassInfo>() {
+					@Override
+					public ClassInfo call() throws Exception {
+						try (InputStream is = libJar.getInputStream(entry)) {
+							return ClassInfo.read(new ClassReader(is), interner);
+						}
+					}
+				}));
 			}
-			sig.append(")");
+		}
 
-			if (mdc.result().type() != null) {
-				sig.append(make(mdc.result(), toOld));
-			} else {
-				sig.append("V"); // void "type"
+		return new Callable<Map<String, ClassInfo>>() {
+			@Override
+			public Map<String, ClassInfo> call() throws Exception {
+				Map<String, ClassInfo> loaded = new LinkedHashMap<>();
+				try {
+					for (Entry<String, Future<ClassInfo>> e : classes.entrySet()) {
+						loaded.put(e.getKey(), await(e.getValue()));
+					}
+				} finally {
+					libJar.close();
+				}
+
+				if (cache != null) {
+					try {
+						LibraryCache.write(cache, path, loaded);
+					} catch (IOException e) {
+						log.log("Failed to cache lib! " + path.getPath() + " " + e.getMessage());
+					}
+				}
+				return loaded;
 			}
+		};
+	}
 
-			return sig.toString();
+	/**
+	 * Remaps the input to the output
+	 * 
+	 * @param input
+	 *            The file to use
+	 * @param output
+	 *            The non existent file to output to
+	 * @throws Exception
+	 *             Normally if something went seriously wrong
+	 */
+	public void remap(File input, File output) throws Exception {
+		log.log("Remapping jar with " + mappings.classCount() + " class mappings, " + mappings.fieldCount()
+				+ " field mappings and " + mappings.methodCount() + " method mappings");
+
+		File manifestFile = RemapManifest.getFile(output);
+		RemapManifest previous = null, manifest = null;
+		File target = output;
+		if (incremental) {
+			manifest = new RemapManifest(keepSource);
+			previous = RemapManifest.read(manifestFile, keepSource);
+			if (previous != null && output.isFile()) {
+				// Unchanged classes are copied out of the old output, so the new one has to go somewhere else first
+				target = new File(output.getPath() + ".tmp");
+			} else {
+				previous = null;
+			}
+		} else {
+			// A manifest left by an earlier run no longer describes this output
+			Files.deleteIfExists(manifestFile.toPath());
 		}
 
-		private String make(AstralMapParser.ResultContext rc, boolean toOld) {
-			return make(rc.type(), toOld);
+		List<String> classNames = new ArrayList<>();
+		final AtomicInteger reused = new AtomicInteger();
+		long start;
+		try (JarFile previousJar = previous != null ? new JarFile(output, false) : null;
+				JarFile jar = new JarFile(input, false);
+				JarWriter out = new JarWriter(target)) {
+			// Raw class bytes from the first pass, so the second pass does not have to inflate them again. Empty
+			// when streaming, the second pass reads the classes from the jar again instead.
+			Map<String, byte[]> jarMap = new HashMap<>();
+
+			log.log("    First pass...");
+			start = System.nanoTime();
+			// Resources are copied without inflating them where the zip allows it, only the first pass copies any
+			try (FileInputStream rawInput = new FileInputStream(input)) {
+				ZipIndex index = ZipIndex.read(rawInput.getChannel());
+				for (Enumeration<JarEntry> entr = jar.entries(); entr.hasMoreElements();) {
+					JarEntry entry = entr.nextElement();
+					String name = entry.getName();
+
+					if (entry.isDirectory()) {
+						continue;
+					}
+
+					if (name.endsWith(".class")) {
+						name = name.substring(0, name.length() - CLASS_LENGTH);
+						classNames.add(name);
+						if (streaming) {
+							try (InputStream is = jar.getInputStream(entry)) {
+								classInfoMap.put(name, ClassInfo.read(new ClassReader(is), interner));
+							}
+							continue;
+						}
+
+						byte[] data = ByteStreams.toByteArray(jar.getInputStream(entry));
+						jarMap.put(name, data);
+						// Only the declarations, the code is parsed once by the second pass
+						classInfoMap.put(name, ClassInfo.read(new ClassReader(data), interner));
+					} else {
+						ZipIndex.Entry raw = index.get(name);
+						if (raw != null) {
+							out.copy(index, raw);
+						} else {
+							try (InputStream is = jar.getInputStream(entry)) {
+								out.write(name, ByteStreams.toByteArray(is));
+							}
+						}
+					}
+				}
+			}
+			invalidateResolution();
+			phase(RemapMetrics.FIRST_PASS, start);
+
+			log.log("    Grouping overrides...");
+			start = System.nanoTime();
+			overrideGroups = OverrideGroups.build(this, mappings, classNames, log);
+			phase(RemapMetrics.OVERRIDE_GROUPS, start);
+
+			log.log("    Second pass...");
+			start = System.nanoTime();
+			final RemapManifest previousManifest = previous, nextManifest = manifest;
+			if (threads > 1) {
+				// Classes are independent once the first pass is done, so transform them on the pool but keep writing
+				// them in the order of the jar so the output is identical to the sequential path. Only a few classes
+				// per thread are in flight at once, which keeps the memory flat when streaming.
+				ExecutorService pool = Executors.newFixedThreadPool(threads);
+				try {
+					Deque<Future<byte[]>> window = new ArrayDeque<>();
+					int written = 0;
+					for (final String name : classNames) {
+						if (window.size() == threads * WINDOW_PER_THREAD) {
+							writeClass(out, classNames.get(written++), await(window.poll()));
+						}
+
+						final byte[] data = readClass(jar, jarMap, name);
+						window.add(pool.submit(new Callable<byte[]>() {
+							@Override
+							public byte[] call() throws Exception {
+								return remapClass(name, data, previousManifest, previousJar, nextManifest, reused);
+							}
+						}));
+					}
+					while (!window.isEmpty()) {
+						writeClass(out, classNames.get(written++), await(window.poll()));
+					}
+				} finally {
+					pool.shutdownNow();
+				}
+			} else {
+				for (String name : classNames) {
+					writeClass(out, name, remapClass(name, readClass(jar, jarMap, name), previousManifest, previousJar,
+							nextManifest, reused));
+				}
+			}
 		}
+		phase(RemapMetrics.SECOND_PASS, start);
 
-		private String make(AstralMapParser.ParameterContext ptc, boolean toOld) {
-			return make(ptc.type(), toOld);
+		if (previous != null) {
+			Files.move(target.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			log.log("    Reused " + reused.get() + " of " + classNames.size() + " classes");
+		}
+		if (manifest != null) {
+			manifest.write(manifestFile);
 		}
+
+		log.log("Complete!");
 	}
 
 	/**
-	 * Populates classMap
+	 * Remaps several jars against the loaded mappings and libraries. The jars
+	 * are remapped at the same time, up to one per thread, each with its own
+	 * classes so the jars do not see each other. A jar that fails does not
+	 * stop the others, the first failure is thrown once all of them are done.
+	 * 
+	 * @param jobs
+	 *            The inputs and the non existent files to output them to
+	 * @throws Exception
+	 *             The first failure of a jar
 	 */
-	class ClassScanner extends AbstractScanner {
-		public ClassScanner(AstralMapParser.MapFileContext mapfile) {
-			super(mapfile);
-		}
+	public void remapBatch(Map<File, File> jobs) throws Exception {
+		log.log("Remapping " + jobs.size() + " jars");
+		ExecutorService pool = threads > 1 && jobs.size() > 1 ? Executors.newFixedThreadPool(threads)
+				: MoreExecutors.newDirectExecutorService();
+		try {
+			Map<File, Future<?>> results = new LinkedHashMap<>();
+			for (final Entry<File, File> job : jobs.entrySet()) {
+				final String prefix = "[" + job.getKey().getName() + "] ";
+				final SMRemapper remapper = new SMRemapper(this, new ILog() {
+					@Override
+					public void log(String text) {
+						log.log(prefix + text);
+					}
+				});
+				// With several jars at once the threads are already busy, a single jar can use all of them
+				remapper.setThreads(jobs.size() > 1 ? 1 : threads);
+				results.put(job.getKey(), pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						remapper.remap(job.getKey(), job.getValue());
+						return null;
+					}
+				}));
+			}
 
-		@Override
-		protected void processBody(String oldname, String newname, List<AstralMapParser.ClassBodyContext> lcbc) {
-			if (!oldname.equals(newname)) {
-				classMap.put(oldname.replace('.', '/'), newname.replace('.', '/'));
+			Exception failure = null;
+			for (Entry<File, Future<?>> result : results.entrySet()) {
+				try {
+					await(result.getValue());
+				} catch (Exception e) {
+					log.log("Failed to remap jar! " + result.getKey().getPath() + " " + e);
+					if (failure == null) {
+						failure = e;
+					}
+				}
 			}
+			if (failure != null) {
+				throw failure;
+			}
+		} finally {
+			pool.shutdownNow();
 		}
 	}
 
 	/**
-	 * Populates fieldMap
+	 * Creates a remapper sharing the mappings, libraries and settings of this
+	 * one that remaps with classes of its own, see remapBatch(...)
+	 * 
+	 * @param log
+	 *            Where the new remapper logs to
+	 * @return The new remapper
 	 */
-	class FieldScanner extends AbstractScanner{
-		private final SignatureUtils su;
+	SMRemapper fork(ILog log) {
+		return new SMRemapper(this, log);
+	}
 
-		public FieldScanner(AstralMapParser.MapFileContext mapfile) {
-			super(mapfile);
-			su = new SignatureUtils();
+	/**
+	 * Gets the bytes of a class for the second pass, from the first pass or
+	 * read again from the jar when streaming
+	 */
+	private byte[] readClass(JarFile jar, Map<String, byte[]> jarMap, String name) throws IOException {
+		byte[] data = jarMap.remove(name);
+		if (data != null) {
+			return data;
 		}
+		try (InputStream is = jar.getInputStream(jar.getEntry(name + ".class"))) {
+			return ByteStreams.toByteArray(is);
+		}
+	}
 
-		@Override
-		protected void processBody(String oldname, String newname, List<AstralMapParser.ClassBodyContext> lcbc) {
-			for (AstralMapParser.ClassBodyContext cbc : lcbc) {
-				AstralMapParser.FieldDeclarationContext fdc = cbc.fieldDeclaration();
-				if (fdc != null && fdc.newname != null) {
-					StringTriple oldst = new StringTriple(oldname, fdc.oldname.getText(), su.make(fdc.type(), true));
-					StringTriple newst = new StringTriple(newname, fdc.newname.getText(), su.make(fdc.type(), false));
-					fieldMap.put(oldst, newst);
+	/**
+	 * Remaps a class, or in incremental mode copies it from the previous output
+	 * if nothing it depends on has changed
+	 * 
+	 * @param name
+	 *            The name of the class in the input jar
+	 * @param data
+	 *            The class bytes read by the first pass
+	 * @param previous
+	 *            The manifest of the previous output, null if there is none
+	 * @param previousJar
+	 *            The previous output, null if there is none
+	 * @param manifest
+	 *            The manifest of the new output, null if not incremental
+	 * @param reused
+	 *            Counts the classes that were copied
+	 * @return The remapped class
+	 */
+	private byte[] remapClass(String name, byte[] data, RemapManifest previous, JarFile previousJar,
+			RemapManifest manifest, AtomicInteger reused) throws IOException {
+		long start = System.nanoTime();
+		byte[] result = remapOrReuse(name, data, previous, previousJar, manifest, reused);
+		if (metrics != null) {
+			metrics.remapped(name, data.length, result.length, System.nanoTime() - start);
+		}
+		return result;
+	}
+
+	private byte[] remapOrReuse(String name, byte[] data, RemapManifest previous, JarFile previousJar,
+			RemapManifest manifest, AtomicInteger reused) throws IOException {
+		if (!ConstantPoolScan.needsRemapping(new ClassReader(data), this)) {
+			// Nothing in it is mapped, this is checked again every run so it is not in the manifest
+			if (metrics != null) {
+				metrics.copied();
+			}
+			return data;
+		}
+		if (manifest == null) {
+			return transform(data);
+		}
+
+		byte[] hash = RemapManifest.hashClass(data);
+		String outputName = map(name) + ".class";
+
+		RemapManifest.Entry old = previous != null ? previous.get(name) : null;
+		if (old != null && Arrays.equals(hash, old.getInputHash()) && outputName.equals(old.getOutputName())
+				&& Arrays.equals(replay(old.getQueries()), old.getDigest())) {
+			JarEntry entry = previousJar.getJarEntry(outputName);
+			if (entry != null) {
+				try (InputStream is = previousJar.getInputStream(entry)) {
+					byte[] copy = ByteStreams.toByteArray(is);
+					manifest.put(name, old);
+					reused.incrementAndGet();
+					if (metrics != null) {
+						metrics.reused();
+					}
+					return copy;
 				}
 			}
 		}
+
+		DependencyRecorder recorder = new DependencyRecorder();
+		RECORDER.set(recorder);
+		byte[] result;
+		try {
+			result = transform(data);
+		} finally {
+			RECORDER.remove();
+		}
+		manifest.put(name, recorder.toEntry(hash, outputName));
+		return result;
 	}
 
 	/**
-	 * Populates methodMap
+	 * Answers recorded lookups again against the current mappings and classes
+	 * 
+	 * @return The digest of the answers
 	 */
-	class MethodScanner extends AbstractScanner{
-		private final SignatureUtils su;
+	private byte[] replay(String[] queries) {
+		List<String> results = new ArrayList<>(queries.length);
+		for (String query : queries) {
+			results.add(answer(query));
+		}
+		return RemapManifest.digest(results);
+	}
 
-		public MethodScanner(AstralMapParser.MapFileContext mapfile) {
-			super(mapfile);
-			su = new SignatureUtils();
+	private String answer(String query) {
+		switch (query.charAt(0)) {
+		case DependencyRecorder.TYPE:
+			return mapCached(query.substring(1));
+		case DependencyRecorder.DESC:
+			return mapDesc(query.substring(1));
+		case DependencyRecorder.METHOD_DESC:
+			return mapMethodDesc(query.substring(1));
+		case DependencyRecorder.SIGNATURE:
+			return mapSignature(query.substring(1), false);
+		case DependencyRecorder.TYPE_SIGNATURE:
+			return mapSignature(query.substring(1), true);
 		}
 
-		@Override
-		protected void processBody(String oldname, String newname, List<AstralMapParser.ClassBodyContext> lcbc) {
-			for (AstralMapParser.ClassBodyContext cbc : lcbc) {
-				AstralMapParser.MethodDeclarationContext mdc = cbc.methodDeclaration();
-				if (mdc != null && mdc.newname != null) {
-					StringTriple oldst = new StringTriple(oldname, mdc.oldname.getText(), su.make(mdc, true));
-					StringTriple newst = new StringTriple(newname, mdc.newname.getText(), su.make(mdc, false));
-					methodMap.put(oldst, newst);
+		String[] args = DependencyRecorder.arguments(query);
+		switch (query.charAt(0)) {
+		case DependencyRecorder.FIELD:
+		case DependencyRecorder.INHERITED_FIELD:
+			return resolve(true, fieldCache, args[0], args[1], args[2],
+					query.charAt(0) == DependencyRecorder.INHERITED_FIELD);
+		case DependencyRecorder.METHOD:
+		case DependencyRecorder.INHERITED_METHOD:
+			return resolve(false, methodCache, args[0], args[1], args[2],
+					query.charAt(0) == DependencyRecorder.INHERITED_METHOD);
+		case DependencyRecorder.FIELD_ACCESS:
+			return Integer.toString(getFieldAccess(args[0], args[1], args[2]));
+		case DependencyRecorder.METHOD_ACCESS:
+			return Integer.toString(getMethodAccess(args[0], args[1], args[2]));
+		default:
+			throw new IllegalArgumentException("Unknown query " + query);
+		}
+	}
+
+	private void phase(String name, long start) {
+		if (metrics != null) {
+			metrics.phase(name, start);
+		}
+	}
+
+	/**
+	 * @return The recorder of the class being transformed on this thread, null
+	 *         if there is none
+	 */
+	private DependencyRecorder recorder() {
+		return incremental ? RECORDER.get() : null;
+	}
+
+	/**
+	 * Remaps a single class from the input jar
+	 * 
+	 * @param data
+	 *            The class bytes read by the first pass
+	 * @return The remapped class
+	 */
+	private byte[] transform(byte[] data) {
+		ClassReader reader = new ClassReader(data);
+		if (poolRewrite) {
+			byte[] rewritten = ConstantPoolRewriter.rewrite(reader, this);
+			if (rewritten != null && verifyPoolRewrite) {
+				byte[] expected = transform(reader);
+				if (!Arrays.equals(normalize(rewritten), normalize(expected))) {
+					log.log("    Pool rewrite of " + reader.getClassName() + " differs from ASM, using ASM");
+					return expected;
 				}
 			}
+			if (rewritten != null) {
+				if (metrics != null) {
+					metrics.rewritten();
+				}
+				return rewritten;
+			}
 		}
+		return transform(reader);
 	}
 
 	/**
-	 * Loads a library
-	 * 
-	 * @param path
-	 *            The library to load
-	 * @throws Exception
-	 *             Normally if the library is empty or corrupt
+	 * Remaps a class with ASM, the reader feeds the remapping adapters which
+	 * write straight into the new class
 	 */
-	public void loadLib(File path) throws Exception {
-		log.log("    Loading lib "+path.getPath()+"...");
-		JarFile libJar = new JarFile(path, false);
+	private byte[] transform(ClassReader reader) {
+		// Not seeded with the reader, that would keep every original pool entry next to the renamed ones. Remapping
+		// does not change the shape of the code, so the max stack and locals are kept as they are.
+		ClassWriter wr = new ClassWriter(0);
+
+		RemapperClassAdapter mapper = new RemapperClassAdapter(this, wr);
+		CURRENT.set(reader);
+		try {
+			reader.accept(mapper, 0);
+		} finally {
+			CURRENT.remove();
+			CURRENT_NODE.remove();
+		}
+		return wr.toByteArray();
+	}
 
-		for (Enumeration<JarEntry> entr = libJar.entries(); entr.hasMoreElements();) {
-			JarEntry entry = entr.nextElement();
-			String name = entry.getName();
+	/**
+	 * Writes a class out again with ASM, so two classes that only differ in the
+	 * order of their constant pool or their max stack and locals come out the
+	 * same
+	 */
+	private static byte[] normalize(byte[] data) {
+		ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		new ClassReader(data).accept(writer, 0);
+		return writer.toByteArray();
+	}
 
-			if (entry.isDirectory()) {
-				continue;
-			}
+	private void writeClass(JarWriter out, String name, byte[] data) throws IOException {
+		out.write(map(name) + ".class", data);
+	}
 
-			if (name.endsWith(".class")) {
-				name = name.substring(0, name.length() - CLASS_LENGTH);
+	private static <T> T await(Future<T> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		}
+	}
 
-				ClassReader cr = new ClassReader(libJar.getInputStream(entry));
-				ClassNode node = new ClassNode();
-				cr.accept(node, 0);
+	public void setKeepSource(boolean keepSource) {
+		this.keepSource = keepSource;
+	}
 
-				classNodeMap.put(name, node);
-			}
+	/**
+	 * Sets how many worker threads remap(...) uses to transform classes, 1
+	 * transforms them on the calling thread
+	 * 
+	 * @param threads
+	 *            The number of worker threads
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Need at least one thread, got " + threads);
 		}
+		this.threads = threads;
+	}
 
-		libJar.close();
+	/**
+	 * Sets if remap(...) reuses classes from the previous output. A manifest
+	 * of what every class depended on is written next to the output, classes
+	 * whose bytes and dependencies are unchanged are copied instead of being
+	 * remapped again.
+	 * 
+	 * @param incremental
+	 *            If remapping should be incremental
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
 	}
 
 	/**
-	 * Remaps the input to the output
+	 * Sets if remap(...) streams the input. The first pass then only keeps the
+	 * class infos of the input classes, the second pass reads every class from
+	 * the input again as it is transformed. The memory used no longer grows
+	 * with the size of the input, but the classes are inflated twice.
 	 * 
-	 * @param input
-	 *            The file to use
-	 * @param output
-	 *            The non existent file to output to
-	 * @throws Exception
-	 *             Normally if something went seriously wrong
+	 * @param streaming
+	 *            If the input should be streamed
 	 */
-	public void remap(File input, File output) throws Exception {
-		log.log("Remapping jar with " + classMap.size() + " class mappings, " + fieldMap.size() + " field mappings and "
-				+ methodMap.size() + " method mappings");
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
 
-		jar = new JarFile(input, false);
+	/**
+	 * Sets if classes are remapped by rewriting their constant pool instead of
+	 * going through ASM. Code and stack map frames are then copied as they
+	 * are, classes with annotations or attributes it does not know still go
+	 * through ASM.
+	 * 
+	 * @param poolRewrite
+	 *            If the constant pool should be rewritten
+	 * @param verify
+	 *            If every rewritten class should also be remapped by ASM and
+	 *            compared, the ASM output is used where they differ
+	 */
+	public void setPoolRewrite(boolean poolRewrite, boolean verify) {
+		this.poolRewrite = poolRewrite;
+		this.verifyPoolRewrite = verify;
+	}
 
-		JarOutputStream out = new JarOutputStream(new FileOutputStream(output));
+	/**
+	 * Sets where timings and counters are collected, see {@link RemapMetrics}
+	 * 
+	 * @param metrics
+	 *            The metrics to add to, null to stop collecting
+	 */
+	public void setMetrics(RemapMetrics metrics) {
+		this.metrics = metrics;
+	}
 
-		log.log("    First pass...");
-		for (Enumeration<JarEntry> entr = jar.entries(); entr.hasMoreElements();) {
-			JarEntry entry = entr.nextElement();
-			String name = entry.getName();
+	/**
+	 * Sets if libraries are loaded lazily. Loading a library then only reads
+	 * the names of its classes, a class is parsed the first time a hierarchy
+	 * lookup needs it and kept in a bounded cache. Lazily loaded libraries
+	 * stay open until resetClasses() and do not use the library cache. Only
+	 * affects libraries loaded afterwards.
+	 * 
+	 * @param lazyLibraries
+	 *            If libraries should be loaded lazily
+	 */
+	public void setLazyLibraries(boolean lazyLibraries) {
+		this.lazyLibraries = lazyLibraries;
+	}
 
-			if (entry.isDirectory()) {
-				continue;
-			}
+	/**
+	 * Sets where the class infos of libraries are cached between runs, a
+	 * library whose cache is current is not parsed again
+	 * 
+	 * @param libraryCache
+	 *            The directory to keep the caches in, null to disable caching
+	 */
+	public void setLibraryCache(File libraryCache) {
+		this.libraryCache = libraryCache;
+	}
 
-			if (name.endsWith(".class")) {
-				name = name.substring(0, name.length() - CLASS_LENGTH);
-				jarMap.put(name, entry);
+	/**
+	 * Sets if the mappings are kept in int symbol tables instead of hash maps,
+	 * this uses much less memory for large mappings. Already loaded mappings
+	 * are moved over.
+	 * 
+	 * @param symbolTables
+	 *            If symbol tables should be used
+	 */
+	public void setSymbolTables(boolean symbolTables) {
+		MappingStore store = symbolTables ? new SymbolStore() : new BiMapStore();
+		for (Entry<String, String> e : mappings.classes()) {
+			store.putClass(e.getKey(), e.getValue());
+		}
+		for (Entry<StringTriple, StringTriple> e : mappings.fields()) {
+			store.putField(e.getKey(), e.getValue());
+		}
+		for (Entry<StringTriple, StringTriple> e : mappings.methods()) {
+			store.putMethod(e.getKey(), e.getValue());
+		}
+		mappings = store;
+		invalidateCaches();
+	}
 
-				ClassReader cr = new ClassReader(jar.getInputStream(entry));
-				ClassNode node = new ClassNode();
-				cr.accept(node, 0);
+	public ILog getLog() {
+		return log;
+	}
 
-				classNodeMap.put(name, node);
-			} else {
-				JarEntry nentry = new JarEntry(name);
-				ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-				int n;
-				byte[] b = new byte[1 << 15];
-				InputStream is = jar.getInputStream(entry);
-				while ((n = is.read(b, 0, b.length)) != -1) {
-					buffer.write(b, 0, n);
-				}
-				buffer.flush();
+	@Override
+	public String map(String typeName) {
+		String mapped = mapCached(typeName);
+		if (metrics != null && mapped.equals(typeName)) {
+			metrics.unmappedClass();
+		}
+		record(DependencyRecorder.TYPE, typeName, mapped);
+		return mapped;
+	}
 
-				nentry.setTime(0);
-				out.putNextEntry(nentry);
-				out.write(buffer.toByteArray());
-			}
+	@Override
+	public String mapDesc(String desc) {
+		String mapped = lookupDescriptor(descCache, desc);
+		if (mapped == null) {
+			mapped = super.mapDesc(desc);
+			descCache.put(desc, mapped);
 		}
+		// A cached descriptor skips the map() calls, so it has to be recorded itself
+		record(DependencyRecorder.DESC, desc, mapped);
+		return mapped;
+	}
 
-		log.log("    Second pass...");
-		for (Entry<String, JarEntry> e : jarMap.entrySet()) {
+	@Override
+	public String mapMethodDesc(String desc) {
+		String mapped = lookupDescriptor(methodDescCache, desc);
+		if (mapped == null) {
+			mapped = super.mapMethodDesc(desc);
+			methodDescCache.put(desc, mapped);
+		}
+		record(DependencyRecorder.METHOD_DESC, desc, mapped);
+		return mapped;
+	}
 
-			ClassReader reader = new ClassReader(jar.getInputStream(e.getValue()));
-			ClassNode node = new ClassNode();
+	@Override
+	public String mapSignature(String signature, boolean typeSignature) {
+		if (signature == null) {
+			return null;
+		}
 
-			RemapperClassAdapter mapper = new RemapperClassAdapter(this, node);
-			reader.accept(mapper, 0);
+		DescriptorCache cache = typeSignature ? typeSignatureCache : signatureCache;
+		String mapped = lookupDescriptor(cache, signature);
+		if (mapped == null) {
+			mapped = super.mapSignature(signature, typeSignature);
+			cache.put(signature, mapped);
+		}
+		record(typeSignature ? DependencyRecorder.TYPE_SIGNATURE : DependencyRecorder.SIGNATURE, signature, mapped);
+		return mapped;
+	}
 
-			ClassWriter wr = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-			node.accept(wr);
+	private String lookupDescriptor(DescriptorCache cache, String key) {
+		String mapped = cache.get(key);
+		if (metrics != null) {
+			metrics.descriptor(mapped != null);
+		}
+		return mapped;
+	}
 
-			JarEntry entry = new JarEntry(map(e.getKey()) + ".class");
-			entry.setTime(0);
-			out.putNextEntry(entry);
-			out.write(wr.toByteArray());
+	private void record(char kind, String query, String result) {
+		DependencyRecorder recorder = recorder();
+		if (recorder != null) {
+			recorder.record(DependencyRecorder.query(kind, query), result);
+		}
+	}
+
+	/**
+	 * Checks if a class is renamed, without recording it
+	 */
+	boolean isMappedClass(String typeName) {
+		return !peekClassName(typeName).equals(typeName);
+	}
 
+	/**
+	 * Maps a class name like mapCached(...), but only reads the cache. Most of
+	 * what the constant pool scan asks about is not a class name, so none of
+	 * it, nor its outer class names, is added to the cache
+	 */
+	private String peekClassName(String typeName) {
+		String mapped = typeCache.get(typeName);
+		if (mapped != null) {
+			return mapped;
 		}
 
-		jar.close();
-		out.close();
+		String mappedName = mappings.mapClass(typeName);
+		if (mappedName != null) {
+			return mappedName;
+		}
 
-		log.log("Complete!");
+		int index = typeName.lastIndexOf('$');
+		if (index != -1) {
+			return peekClassName(typeName.substring(0, index)) + typeName.substring(index);
+		}
+		return typeName;
 	}
 
-	public void setKeepSource(boolean keepSource) {
-		this.keepSource = keepSource;
+	/**
+	 * Checks if any field or method with this name is mapped, in any class
+	 */
+	boolean isMappedMemberName(String name) {
+		Set<String> names = memberNames;
+		if (names == null) {
+			names = new HashSet<>();
+			for (Entry<StringTriple, StringTriple> e : mappings.fields()) {
+				names.add(e.getKey().getName());
+			}
+			for (Entry<StringTriple, StringTriple> e : mappings.methods()) {
+				names.add(e.getKey().getName());
+			}
+			memberNames = names;
+		}
+		return names.contains(name);
 	}
 
-	public ILog getLog() {
-		return log;
+	private String mapCached(String typeName) {
+		String mapped = typeCache.get(typeName);
+		if (mapped == null) {
+			mapped = mapClassName(typeName);
+			typeCache.put(typeName, mapped);
+		}
+		return mapped;
 	}
 
-	@Override
-	public String map(String typeName) {
-		if (classMap.containsKey(typeName)) {
-			return classMap.get(typeName);
+	private String mapClassName(String typeName) {
+		String mappedName = mappings.mapClass(typeName);
+		if (mappedName != null) {
+			return mappedName;
 		}
 
 		int index = typeName.lastIndexOf('$');
 		if (index != -1) {
 			String outer = typeName.substring(0, index);
-			String mapped = map(outer);
+			String mapped = mapCached(outer);
 			if (mapped == null)
 				return null;
 			return mapped + typeName.substring(index);
@@ -419,57 +1145,143 @@ public class SMRemapper extends Remapper {
 		return typeName;
 	}
 
+	/**
+	 * Gets the node of the class being transformed on this thread, without
+	 * its code. No nodes are kept between classes, it is read from the bytes
+	 * of the class the first time an annotation needs it.
+	 * 
+	 * @return The node, or null if the class is not the one being transformed
+	 */
 	public ClassNode getClass(String clazz) {
-		return classNodeMap.containsKey(clazz) ? classNodeMap.get(clazz) : null;
+		ClassReader current = CURRENT.get();
+		if (current == null || !current.getClassName().equals(clazz)) {
+			return null;
+		}
+		ClassNode node = CURRENT_NODE.get();
+		if (node == null) {
+			node = new ClassNode();
+			current.accept(node, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+			CURRENT_NODE.set(node);
+		}
+		return node;
 	}
 
-	public String mapFieldName(String owner, String name, String desc, int access, boolean base) {
-		StringTriple mapped = fieldMap.get(new StringTriple(owner, name, desc));
-		ClassNode clazz = getClass(owner);
+	/**
+	 * Gets the class info of a class from the jar being remapped or a
+	 * library, parsing lazily loaded libraries as needed
+	 */
+	public ClassInfo getClassInfo(String clazz) {
+		ClassInfo info = classInfoMap.get(clazz);
+		if (info != null) {
+			return info;
+		}
+		return parent != null ? parent.getClassInfo(clazz) : libraryIndex.get(clazz);
+	}
 
-		if (mapped != null) {
-			return mapped.getName();
-		} else if (checkParents(access) && clazz != null) {
-			if (clazz.superName != null) {
-				String map = mapFieldName(clazz.superName, name, desc, access, false);
-				if (map != null) {
-					return map;
-				}
-			}
+	/**
+	 * Finds the access of a field declared by a loaded class
+	 * 
+	 * @return The access flags, or -1 if the class or field is not known
+	 */
+	public int getFieldAccess(String owner, String name, String desc) {
+		ClassInfo clazz = getClassInfo(owner);
+		int access = clazz != null ? clazz.getFieldAccess(name, desc) : -1;
+		DependencyRecorder recorder = recorder();
+		if (recorder != null) {
+			recorder.record(DependencyRecorder.query(DependencyRecorder.FIELD_ACCESS, owner, name, desc),
+					Integer.toString(access));
+		}
+		return access;
+	}
 
-			for (String iface : clazz.interfaces) {
-				String map = mapFieldName(iface, name, desc, access, false);
-				if (map != null) {
-					return map;
-				}
-			}
+	/**
+	 * Finds the access of a method declared by a loaded class
+	 * 
+	 * @return The access flags, or -1 if the class or method is not known
+	 */
+	public int getMethodAccess(String owner, String name, String desc) {
+		ClassInfo clazz = getClassInfo(owner);
+		int access = clazz != null ? clazz.getMethodAccess(name, desc) : -1;
+		DependencyRecorder recorder = recorder();
+		if (recorder != null) {
+			recorder.record(DependencyRecorder.query(DependencyRecorder.METHOD_ACCESS, owner, name, desc),
+					Integer.toString(access));
+		}
+		return access;
+	}
+
+	public String mapFieldName(String owner, String name, String desc, int access, boolean base) {
+		boolean parents = checkParents(access);
+		String mapped = resolve(true, fieldCache, owner, name, desc, parents);
+		if (metrics != null && mapped == null) {
+			metrics.unmappedMember(true);
+		}
+		DependencyRecorder recorder = recorder();
+		if (recorder != null) {
+			recorder.record(DependencyRecorder.query(
+					parents ? DependencyRecorder.INHERITED_FIELD : DependencyRecorder.FIELD, owner, name, desc), mapped);
 		}
-		return base ? name : null;
+		return mapped != null ? mapped : base ? name : null;
 	}
 
 	public String mapMethodName(String owner, String name, String desc, int access, boolean base) {
-		StringTriple mapped = methodMap.get(new StringTriple(owner, name, desc));
-		ClassNode clazz = getClass(owner);
+		boolean parents = checkParents(access);
+		String mapped = resolve(false, methodCache, owner, name, desc, parents);
+		if (metrics != null && mapped == null) {
+			metrics.unmappedMember(false);
+		}
+		DependencyRecorder recorder = recorder();
+		if (recorder != null) {
+			recorder.record(DependencyRecorder.query(
+					parents ? DependencyRecorder.INHERITED_METHOD : DependencyRecorder.METHOD, owner, name, desc),
+					mapped);
+		}
+		return mapped != null ? mapped : base ? name : null;
+	}
 
-		if (mapped != null) {
-			return mapped.getName();
-		} else if (checkParents(access) && clazz != null) {
+	/**
+	 * Finds the new name of a member, checking the superclass and interfaces
+	 * if it was not renamed in the owner itself. Methods in the hierarchy of
+	 * the input were already resolved by the override groups.
+	 * 
+	 * @return The new name, or null if the member is not mapped
+	 */
+	private String resolve(boolean field, ResolutionCache cache, String owner, String name, String desc,
+			boolean parents) {
+		if (!parents) {
+			return field ? mappings.mapField(owner, name, desc) : mappings.mapMethod(owner, name, desc);
+		}
+
+		StringTriple probe = PROBE.get().set(owner, name, desc);
+		OverrideGroups groups = overrideGroups;
+		String cached = !field && groups != null ? groups.get(probe) : null;
+		if (cached == null) {
+			cached = cache.get(probe);
+		}
+		if (metrics != null) {
+			metrics.resolution(field, cached != null);
+		}
+		if (cached != null) {
+			return cached == ResolutionCache.UNMAPPED ? null : cached;
+		}
+
+		String resolved = field ? mappings.mapField(owner, name, desc) : mappings.mapMethod(owner, name, desc);
+		ClassInfo clazz = getClassInfo(owner);
+
+		if (resolved == null && clazz != null) {
 			// Check to see if it was renamed in any superclass or interface
-			if (clazz.superName != null) {
-				String map = mapMethodName(clazz.superName, name, desc, access, false);
-				if (map != null) {
-					return map;
-				}
+			if (clazz.getSuperName() != null) {
+				resolved = resolve(field, cache, clazz.getSuperName(), name, desc, true);
 			}
 
-			for (String iface : clazz.interfaces) {
-				String map = mapMethodName(iface, name, desc, access, false);
-				if (map != null) {
-					return map;
-				}
+			for (int i = 0; resolved == null && i < clazz.getInterfaces().length; i++) {
+				resolved = resolve(field, cache, clazz.getInterfaces()[i], name, desc, true);
 			}
 		}
-		return base ? name : null;
+
+		// The probe has been reused by the lookups above, only a miss pays for a key of its own
+		cache.put(new StringTriple(owner, name, desc), resolved);
+		return resolved;
 	}
 
 	private boolean checkParents(int access) {
@@ -499,9 +1311,69 @@ public class SMRemapper extends Remapper {
 		System.out.println("Made for SMT by Error22 & co");
 		System.out.println();
 
-		if (args.length != 6) {
+		if (args.length == 3 && args[0].equals("compileMapping")) {
+			SMRemapper instance = new SMRemapper(new ILog() {
+				@Override
+				public void log(String text) {
+					System.out.println(text);
+				}
+			});
+			instance.compileMapping(new File(args[1]), new File(args[2]));
+			return;
+		}
+
+		if (args.length == 2 && args[0].equals("daemon")) {
+			int port = Integer.parseInt(args[1]);
+			new RemapDaemon(new ILog() {
+				@Override
+				public void log(String text) {
+					System.out.println(text);
+				}
+			}, RemapDaemon.getTokenFile(port)).serve(port);
+			return;
+		}
+
+		if (args.length >= 8 && args[0].equals("client")) {
+			RemapJob job;
+			try {
+				job = RemapJob.parse(Arrays.copyOfRange(args, 2, args.length));
+			} catch (IllegalArgumentException e) {
+				System.out.println(e.getMessage());
+				System.exit(0);
+				return;
+			}
+			int port = Integer.parseInt(args[1]);
+			boolean done = RemapDaemon.submit(port, RemapDaemon.getTokenFile(port), job.toArguments(), new ILog() {
+				@Override
+				public void log(String text) {
+					System.out.println(text);
+				}
+			});
+			System.exit(done ? 0 : 1);
+		}
+
+		if (args.length < 6) {
+			System.out.println(
+					"Usage: java -jar SMRemapper.jar {input} {output} {mapping} {libs folder} {reverse (true/false)} {keep source (true/false)} [options]");
+			System.out.println("Options: --threads=N  Transforms classes on N worker threads");
 			System.out.println(
-					"Usage: java -jar SMRemapper.jar {input} {output} {mapping} {libs folder} {reverse (true/false)} {keep source (true/false)}");
+					"         --compiled=FILE  Loads the mapping from a compiled file, rebuilding it if it is out of date");
+			System.out.println("         --symbol-tables  Keeps the mappings in compact symbol tables");
+			System.out.println(
+					"         --incremental  Reuses classes from the previous output that do not need remapping again");
+			System.out.println("         --lib-cache=DIR  Caches the parsed libraries in DIR between runs");
+			System.out.println("         --lazy-libs  Only parses the library classes that are needed");
+			System.out.println("         --metrics=FILE  Writes timings and counters for the run to FILE as JSON");
+			System.out.println("         --streaming  Reads the input classes again instead of keeping them in memory");
+			System.out.println("         --pool-rewrite  Remaps classes by rewriting their constant pool");
+			System.out.println(
+					"         --verify-pool-rewrite  Rewrites the constant pool and checks every class against ASM");
+			System.out.println(
+					"Input: If the input is a folder every jar in it is remapped into the output folder, sharing the mapping and libs");
+			System.out.println("   Or: java -jar SMRemapper.jar compileMapping {mapping} {output}");
+			System.out.println("   Or: java -jar SMRemapper.jar daemon {port}");
+			System.out.println(
+					"   Or: java -jar SMRemapper.jar client {port} {input} {output} {mapping} {libs folder} {reverse} {keep source} [options]");
 			System.out.println(
 					"Libs Folder: The libs folder must include the rt.jar(or classes on mac) file otherwise inheritance lookup will not work correctly!");
 			System.out.println(
@@ -509,12 +1381,14 @@ public class SMRemapper extends Remapper {
 			System.exit(0);
 		}
 
-		File input = new File(args[0]);
-		File output = new File(args[1]);
-		File mapping = new File(args[2]);
-		File libsFolder = new File(args[3]);
-		boolean reverse = args[4].equalsIgnoreCase("true");
-		boolean keepSource = args[5].equalsIgnoreCase("true");
+		RemapJob job;
+		try {
+			job = RemapJob.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.exit(0);
+			return;
+		}
 
 		SMRemapper instance = new SMRemapper(new ILog() {
 			@Override
@@ -523,24 +1397,23 @@ public class SMRemapper extends Remapper {
 			}
 		});
 
-		instance.setKeepSource(keepSource);
-		instance.loadMapping(mapping, reverse);
+		job.configureLoading(instance);
+		job.configureRemap(instance);
+		RemapMetrics metrics = job.metricsFile != null ? new RemapMetrics() : null;
+		instance.setMetrics(metrics);
+		job.loadMapping(instance);
 
-		if (libsFolder == null || !libsFolder.exists()) {
+		if (!job.libsFolder.exists()) {
 			System.out.println("Libs folder does not exist!");
 			System.exit(0);
 		}
 		
 		System.out.println("Loading libs...");
-		for (File lib : libsFolder.listFiles()) {
-			try {
-				instance.loadLib(lib);
-			} catch (Exception e) {
-				e.printStackTrace();
-				instance.getLog().log("Failed to load lib! " + lib.getPath() + " " + e.getMessage());
-			}
-		}
+		instance.loadLibs(job.listLibs());
+		job.remap(instance);
 
-		instance.remap(input, output);
+		if (metrics != null) {
+			metrics.writeJson(job.metricsFile);
+		}
 	}
 }
@@ -1,12 +1,39 @@
 package com.error22.smt.remapper;
 
 public final class StringTriple {
-	private final String cls, name, sig;
+	private String cls, name, sig;
+	// Cached as every lookup key is hashed at least once
+	private int hash;
 
 	public StringTriple(String cls, String name, String sig) {
+		set(cls, name, sig);
+	}
+
+	/**
+	 * Creates a mutable probe key, see {@link #set(String, String, String)}
+	 */
+	StringTriple() {
+	}
+
+	/**
+	 * Reuses this triple as a lookup key so probing a map does not allocate.
+	 * Only for probes that are confined to one thread and never stored in a
+	 * map, everything else must stay immutable.
+	 *
+	 * @return This triple
+	 */
+	StringTriple set(String cls, String name, String sig) {
 		this.cls = cls;
 		this.name = name;
 		this.sig = sig;
+
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((cls == null) ? 0 : cls.hashCode());
+		result = prime * result + ((name == null) ? 0 : name.hashCode());
+		result = prime * result + ((sig == null) ? 0 : sig.hashCode());
+		hash = result;
+		return this;
 	}
 
 	public String getCls() {
@@ -23,12 +50,7 @@ public final class StringTriple {
 
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((cls == null) ? 0 : cls.hashCode());
-		result = prime * result + ((name == null) ? 0 : name.hashCode());
-		result = prime * result + ((sig == null) ? 0 : sig.hashCode());
-		return result;
+		return hash;
 	}
 
 	@Override
@@ -40,6 +62,8 @@ public final class StringTriple {
 		if (getClass() != obj.getClass())
 			return false;
 		StringTriple other = (StringTriple) obj;
+		if (hash != other.hash)
+			return false;
 		if (cls == null) {
 			if (other.cls != null)
 				return false;
@@ -0,0 +1,242 @@
+package com.error22.smt.remapper;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * Keeps the mappings as int ids. Every class name, member name and desc is
+ * interned once in a {@link SymbolTable}, classes are keyed by their id and
+ * members by their (owner, name, desc) ids packed into a long. Both
+ * directions are indexed as the entries are put, so a new name that is
+ * mapped twice fails while the mapping loads.
+ */
+final class SymbolStore implements MappingStore {
+	private final Data data;
+	private final boolean inverted;
+
+	SymbolStore() {
+		this(new Data(), false);
+	}
+
+	private SymbolStore(Data data, boolean inverted) {
+		this.data = data;
+		this.inverted = inverted;
+	}
+
+	@Override
+	public String mapClass(String name) {
+		int id = data.symbols.find(name);
+		if (id < 0) {
+			return null;
+		}
+
+		Table classes = data.classes;
+		int entry = classes.find(inverted, id);
+		return entry < 0 ? null : data.symbols.get(classes.id(!inverted, entry, 0));
+	}
+
+	@Override
+	public String mapField(String owner, String name, String desc) {
+		return mapMember(data.fields, owner, name, desc);
+	}
+
+	@Override
+	public String mapMethod(String owner, String name, String desc) {
+		return mapMember(data.methods, owner, name, desc);
+	}
+
+	private String mapMember(Table members, String owner, String name, String desc) {
+		SymbolTable symbols = data.symbols;
+		int ownerId = symbols.find(owner);
+		int nameId = symbols.find(name);
+		int descId = symbols.find(desc);
+		if (ownerId < 0 || nameId < 0 || descId < 0) {
+			return null;
+		}
+
+		int entry = members.find(inverted, pack(ownerId, nameId, descId));
+		return entry < 0 ? null : symbols.get(members.id(!inverted, entry, 1));
+	}
+
+	@Override
+	public void putClass(String oldName, String newName) {
+		data.classes.put(inverted, new int[] { data.symbols.intern(oldName) },
+				new int[] { data.symbols.intern(newName) });
+	}
+
+	@Override
+	public void putField(StringTriple oldField, StringTriple newField) {
+		data.fields.put(inverted, intern(oldField), intern(newField));
+	}
+
+	@Override
+	public void putMethod(StringTriple oldMethod, StringTriple newMethod) {
+		data.methods.put(inverted, intern(oldMethod), intern(newMethod));
+	}
+
+	private int[] intern(StringTriple member) {
+		SymbolTable symbols = data.symbols;
+		return new int[] { symbols.intern(member.getCls()), symbols.intern(member.getName()),
+				symbols.intern(member.getSig()) };
+	}
+
+	@Override
+	public int classCount() {
+		return data.classes.size;
+	}
+
+	@Override
+	public int fieldCount() {
+		return data.fields.size;
+	}
+
+	@Override
+	public int methodCount() {
+		return data.methods.size;
+	}
+
+	@Override
+	public Iterable<Entry<String, String>> classes() {
+		Table classes = data.classes;
+		List<Entry<String, String>> entries = new ArrayList<>(classes.size);
+		for (int e = 0; e < classes.size; e++) {
+			entries.add(new SimpleImmutableEntry<>(data.symbols.get(classes.id(inverted, e, 0)),
+					data.symbols.get(classes.id(!inverted, e, 0))));
+		}
+		return entries;
+	}
+
+	@Override
+	public Iterable<Entry<StringTriple, StringTriple>> fields() {
+		return members(data.fields);
+	}
+
+	@Override
+	public Iterable<Entry<StringTriple, StringTriple>> methods() {
+		return members(data.methods);
+	}
+
+	private Iterable<Entry<StringTriple, StringTriple>> members(Table members) {
+		List<Entry<StringTriple, StringTriple>> entries = new ArrayList<>(members.size);
+		for (int e = 0; e < members.size; e++) {
+			entries.add(new SimpleImmutableEntry<>(triple(members, inverted, e), triple(members, !inverted, e)));
+		}
+		return entries;
+	}
+
+	private StringTriple triple(Table members, boolean side, int entry) {
+		SymbolTable symbols = data.symbols;
+		return new StringTriple(symbols.get(members.id(side, entry, 0)), symbols.get(members.id(side, entry, 1)),
+				symbols.get(members.id(side, entry, 2)));
+	}
+
+	@Override
+	public MappingStore inverse() {
+		return new SymbolStore(data, !inverted);
+	}
+
+	@Override
+	public void clear() {
+		data.clear();
+	}
+
+	private static long pack(int owner, int name, int desc) {
+		return ((long) owner << 42) | ((long) name << 21) | desc;
+	}
+
+	/**
+	 * Shared between a store and its inverse
+	 */
+	private static final class Data {
+		private SymbolTable symbols;
+		private Table classes, fields, methods;
+
+		Data() {
+			clear();
+		}
+
+		void clear() {
+			symbols = new SymbolTable();
+			classes = new Table(1);
+			fields = new Table(3);
+			methods = new Table(3);
+		}
+	}
+
+	/**
+	 * Mapping entries stored as the ids of their old and new side. Side false
+	 * is the old side and side true the new one.
+	 */
+	private static final class Table {
+		private final int width;
+		private int[] oldIds, newIds;
+		private int size;
+		// Both sides are kept up to date by put(...), so a value mapped twice fails while the mapping loads
+		private final LongIntMap oldIndex = new LongIntMap(16), newIndex = new LongIntMap(16);
+
+		Table(int width) {
+			this.width = width;
+			oldIds = new int[16 * width];
+			newIds = new int[16 * width];
+		}
+
+		int id(boolean side, int entry, int part) {
+			return (side ? newIds : oldIds)[entry * width + part];
+		}
+
+		/**
+		 * @return The entry with the given key on one side, or -1
+		 */
+		int find(boolean side, long key) {
+			return index(side).get(key);
+		}
+
+		void put(boolean side, int[] key, int[] value) {
+			LongIntMap keyIndex = index(side);
+			LongIntMap valueIndex = index(!side);
+			long packedKey = pack(key);
+			long packedValue = pack(value);
+
+			int entry = keyIndex.get(packedKey);
+			int existing = valueIndex.get(packedValue);
+			if (existing >= 0 && existing != entry) {
+				throw new IllegalArgumentException("value already present: " + Arrays.toString(value));
+			}
+
+			if (entry >= 0) {
+				if (existing != entry) {
+					int[] valueIds = side ? oldIds : newIds;
+					valueIndex.remove(pack(valueIds, entry * width));
+					System.arraycopy(value, 0, valueIds, entry * width, width);
+					valueIndex.put(packedValue, entry);
+				}
+				return;
+			}
+
+			if ((size + 1) * width > oldIds.length) {
+				oldIds = Arrays.copyOf(oldIds, oldIds.length * 2);
+				newIds = Arrays.copyOf(newIds, newIds.length * 2);
+			}
+			System.arraycopy(key, 0, side ? newIds : oldIds, size * width, width);
+			System.arraycopy(value, 0, side ? oldIds : newIds, size * width, width);
+			keyIndex.put(packedKey, size);
+			valueIndex.put(packedValue, size);
+			size++;
+		}
+
+		private LongIntMap index(boolean side) {
+			return side ? newIndex : oldIndex;
+		}
+
+		private long pack(int[] ids) {
+			return pack(ids, 0);
+		}
+
+		private long pack(int[] ids, int offset) {
+			return width == 1 ? ids[offset] : SymbolStore.pack(ids[offset], ids[offset + 1], ids[offset + 2]);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package com.error22.smt.remapper;
+
+import java.util.Arrays;
+
+/**
+ * Interns strings to dense int ids. Lookups hash into an open addressing
+ * table of ids, so finding a string allocates nothing.
+ */
+final class SymbolTable {
+	/**
+	 * Ids have to fit in 21 bits so three of them pack into a long
+	 */
+	static final int MAX_SYMBOLS = 1 << 21;
+
+	private String[] symbols = new String[64];
+	private int[] table = new int[128];
+	private int size;
+
+	/**
+	 * @return The id of the string, or -1 if it has never been interned
+	 */
+	int find(String symbol) {
+		int mask = table.length - 1;
+		for (int slot = hash(symbol) & mask;; slot = (slot + 1) & mask) {
+			int id = table[slot] - 1;
+			if (id < 0) {
+				return -1;
+			}
+			if (symbols[id].equals(symbol)) {
+				return id;
+			}
+		}
+	}
+
+	/**
+	 * @return The id of the string, adding it if needed
+	 */
+	int intern(String symbol) {
+		int mask = table.length - 1;
+		int slot = hash(symbol) & mask;
+		for (;; slot = (slot + 1) & mask) {
+			int id = table[slot] - 1;
+			if (id < 0) {
+				break;
+			}
+			if (symbols[id].equals(symbol)) {
+				return id;
+			}
+		}
+
+		if (size == MAX_SYMBOLS) {
+			throw new IllegalStateException("Too many symbols, the limit is " + MAX_SYMBOLS);
+		}
+		if (size == symbols.length) {
+			symbols = Arrays.copyOf(symbols, size * 2);
+		}
+		symbols[size] = symbol;
+		table[slot] = ++size;
+
+		// Keep the table at most half full
+		if (size * 2 > table.length) {
+			rehash();
+		}
+		return size - 1;
+	}
+
+	String get(int id) {
+		return symbols[id];
+	}
+
+	int size() {
+		return size;
+	}
+
+	private void rehash() {
+		table = new int[table.length * 2];
+		int mask = table.length - 1;
+		for (int id = 0; id < size; id++) {
+			int slot = hash(symbols[id]) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = id + 1;
+		}
+	}
+
+	private static int hash(String symbol) {
+		int h = symbol.hashCode();
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,172 @@
+package com.error22.smt.remapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the central directory of a zip file so entries can be copied to a
+ * {@link JarWriter} without inflating them. Only plain stored and deflated
+ * entries are indexed, zip64 and encrypted entries have to be read through
+ * the normal zip classes.
+ */
+final class ZipIndex {
+	private static final int END_SIGNATURE = 0x06054b50, CENTRAL_SIGNATURE = 0x02014b50,
+			LOCAL_SIGNATURE = 0x04034b50;
+	private static final int END_LENGTH = 22, CENTRAL_LENGTH = 46, LOCAL_LENGTH = 30;
+	private static final long MAX_COMMENT = 0xFFFF;
+
+	private final FileChannel channel;
+	private final Map<String, Entry> entries;
+
+	private ZipIndex(FileChannel channel, Map<String, Entry> entries) {
+		this.channel = channel;
+		this.entries = entries;
+	}
+
+	/**
+	 * Indexes a zip file, the channel is not closed
+	 *
+	 * @return The index, empty if the central directory could not be read
+	 */
+	static ZipIndex read(FileChannel channel) throws IOException {
+		Map<String, Entry> entries = new HashMap<>();
+		ZipIndex index = new ZipIndex(channel, entries);
+
+		// The end record is followed by a comment of up to 64k, search backwards for its signature
+		long size = channel.size();
+		long tail = Math.min(size, END_LENGTH + MAX_COMMENT);
+		ByteBuffer buffer = read(channel, size - tail, (int) tail);
+		int end = -1;
+		for (int i = (int) tail - END_LENGTH; i >= 0; i--) {
+			if (buffer.getInt(i) == END_SIGNATURE) {
+				end = i;
+				break;
+			}
+		}
+		if (end == -1) {
+			return index;
+		}
+
+		int count = buffer.getShort(end + 10) & 0xFFFF;
+		long directorySize = buffer.getInt(end + 12) & 0xFFFFFFFFL;
+		long directoryOffset = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+		if (count == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL
+				|| directoryOffset + directorySize > size) {
+			// zip64
+			return index;
+		}
+
+		ByteBuffer directory = read(channel, directoryOffset, (int) directorySize);
+		int pos = 0;
+		for (int i = 0; i < count; i++) {
+			if (pos + CENTRAL_LENGTH > directory.limit() || directory.getInt(pos) != CENTRAL_SIGNATURE) {
+				entries.clear();
+				return index;
+			}
+
+			int flags = directory.getShort(pos + 8) & 0xFFFF;
+			int method = directory.getShort(pos + 10) & 0xFFFF;
+			int crc = directory.getInt(pos + 16);
+			long compressedSize = directory.getInt(pos + 20) & 0xFFFFFFFFL;
+			long uncompressedSize = directory.getInt(pos + 24) & 0xFFFFFFFFL;
+			int nameLength = directory.getShort(pos + 28) & 0xFFFF;
+			int extraLength = directory.getShort(pos + 30) & 0xFFFF;
+			int commentLength = directory.getShort(pos + 32) & 0xFFFF;
+			long offset = directory.getInt(pos + 42) & 0xFFFFFFFFL;
+
+			byte[] name = new byte[nameLength];
+			directory.position(pos + CENTRAL_LENGTH);
+			directory.get(name);
+			pos += CENTRAL_LENGTH + nameLength + extraLength + commentLength;
+
+			boolean encrypted = (flags & 1) != 0;
+			boolean zip64 = compressedSize == 0xFFFFFFFFL || uncompressedSize == 0xFFFFFFFFL
+					|| offset == 0xFFFFFFFFL;
+			if (!encrypted && !zip64 && (method == JarWriter.STORED || method == JarWriter.DEFLATED)) {
+				String entryName = new String(name, StandardCharsets.UTF_8);
+				entries.put(entryName, new Entry(entryName, flags, method, crc, compressedSize, uncompressedSize,
+						offset));
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * @return The entry, or null if it can not be copied raw
+	 */
+	Entry get(String name) {
+		return entries.get(name);
+	}
+
+	FileChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Finds where the compressed data of an entry starts, the local header
+	 * can have a different extra field than the central directory
+	 */
+	long getDataOffset(Entry entry) throws IOException {
+		ByteBuffer header = read(channel, entry.offset, LOCAL_LENGTH);
+		if (header.getInt(0) != LOCAL_SIGNATURE) {
+			throw new IOException("Bad local header for " + entry.name);
+		}
+		return entry.offset + LOCAL_LENGTH + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+	}
+
+	private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of zip");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	static final class Entry {
+		private final String name;
+		private final int flags, method, crc;
+		private final long compressedSize, size, offset;
+
+		Entry(String name, int flags, int method, int crc, long compressedSize, long size, long offset) {
+			this.name = name;
+			this.flags = flags;
+			this.method = method;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.offset = offset;
+		}
+
+		String getName() {
+			return name;
+		}
+
+		int getFlags() {
+			return flags;
+		}
+
+		int getMethod() {
+			return method;
+		}
+
+		int getCrc() {
+			return crc;
+		}
+
+		long getCompressedSize() {
+			return compressedSize;
+		}
+
+		long getSize() {
+			return size;
+		}
+	}
+}
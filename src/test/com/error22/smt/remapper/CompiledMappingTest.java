@@ -0,0 +1,101 @@
+package com.error22.smt.remapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompiledMappingTest {
+	private static final byte[] HASH = new byte[20], OTHER_HASH = new byte[20];
+
+	static {
+		OTHER_HASH[0] = 1;
+	}
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static MappingStore mappings() {
+		MappingStore mappings = new BiMapStore();
+		mappings.putClass("a", "Game");
+		mappings.putClass("b", "Player");
+		mappings.putField(new StringTriple("a", "c", "Lb;"), new StringTriple("Game", "player", "LPlayer;"));
+		mappings.putMethod(new StringTriple("b", "d", "(La;)V"), new StringTriple("Player", "join", "(LGame;)V"));
+		return mappings;
+	}
+
+	@Test
+	public void roundTrip() throws IOException {
+		File compiled = folder.newFile("map.smtc");
+		CompiledMapping.write(compiled, HASH, mappings());
+
+		MappingStore read = new BiMapStore();
+		CompiledMapping.read(compiled, read);
+		assertEquals(2, read.classCount());
+		assertEquals("Game", read.mapClass("a"));
+		assertEquals("Player", read.mapClass("b"));
+		assertEquals("player", read.mapField("a", "c", "Lb;"));
+		assertEquals("join", read.mapMethod("b", "d", "(La;)V"));
+		assertNull(read.mapMethod("b", "d", "()V"));
+	}
+
+	@Test
+	public void roundTripIntoSymbolTables() throws IOException {
+		File compiled = folder.newFile("map.smtc");
+		CompiledMapping.write(compiled, HASH, mappings());
+
+		MappingStore read = new SymbolStore();
+		CompiledMapping.read(compiled, read);
+		assertEquals("Player", read.mapClass("b"));
+		assertEquals("player", read.mapField("a", "c", "Lb;"));
+		assertEquals("join", read.mapMethod("b", "d", "(La;)V"));
+	}
+
+	@Test
+	public void isCurrentChecksTheHash() throws IOException {
+		File compiled = folder.newFile("map.smtc");
+		CompiledMapping.write(compiled, HASH, mappings());
+
+		assertTrue(CompiledMapping.isCurrent(compiled, HASH));
+		assertFalse(CompiledMapping.isCurrent(compiled, OTHER_HASH));
+	}
+
+	@Test
+	public void missingOrForeignFilesAreNotCurrent() throws IOException {
+		assertFalse(CompiledMapping.isCurrent(new File(folder.getRoot(), "missing.smtc"), HASH));
+
+		File foreign = folder.newFile("foreign.smtc");
+		Files.write(foreign.toPath(), "not a compiled mapping".getBytes(StandardCharsets.UTF_8));
+		assertFalse(CompiledMapping.isCurrent(foreign, HASH));
+
+		File empty = folder.newFile("empty.smtc");
+		assertFalse(CompiledMapping.isCurrent(empty, HASH));
+	}
+
+	@Test
+	public void staleFileCanBeRewritten() throws IOException {
+		File compiled = folder.newFile("map.smtc");
+		CompiledMapping.write(compiled, HASH, mappings());
+		assertTrue(CompiledMapping.isCurrent(compiled, HASH));
+
+		// The out of date path checks the file and then writes over it
+		assertFalse(CompiledMapping.isCurrent(compiled, OTHER_HASH));
+		MappingStore changed = mappings();
+		changed.putClass("e", "World");
+		CompiledMapping.write(compiled, OTHER_HASH, changed);
+
+		assertTrue(CompiledMapping.isCurrent(compiled, OTHER_HASH));
+		MappingStore read = new BiMapStore();
+		CompiledMapping.read(compiled, read);
+		assertEquals("World", read.mapClass("e"));
+	}
+}
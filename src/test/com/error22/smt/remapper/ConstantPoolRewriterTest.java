@@ -0,0 +1,254 @@
+package com.error22.smt.remapper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import com.google.common.io.ByteStreams;
+
+public class ConstantPoolRewriterTest {
+	private static final ILog NO_LOG = new ILog() {
+		@Override
+		public void log(String text) {
+		}
+	};
+	private static final Handle METAFACTORY = new Handle(Opcodes.H_INVOKESTATIC,
+			"java/lang/invoke/LambdaMetafactory", "metafactory",
+			"(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;"
+					+ "Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)"
+					+ "Ljava/lang/invoke/CallSite;");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * A remapper with the test mapping loaded, the members are put in
+	 * directly so their owners are internal names
+	 */
+	private SMRemapper remapper(String fieldName) throws IOException {
+		MappingStore mappings = new BiMapStore();
+		mappings.putClass("game/a", "game/Game");
+		mappings.putClass("game/a$d", "game/Game$Inner");
+		mappings.putField(new StringTriple("game/a", "a", "I"), new StringTriple("game/Game", fieldName, "I"));
+		mappings.putMethod(new StringTriple("game/a", "b", "()I"), new StringTriple("game/Game", "getHealth", "()I"));
+		mappings.putMethod(new StringTriple("game/a", "c", "(Lgame/a;)V"),
+				new StringTriple("game/Game", "use", "(Lgame/Game;)V"));
+		mappings.putMethod(new StringTriple("game/a", "e", "()V"), new StringTriple("game/Game", "run", "()V"));
+
+		File mapping = folder.newFile();
+		Files.write(mapping.toPath(), fieldName.getBytes(StandardCharsets.UTF_8));
+		File compiled = folder.newFile();
+		CompiledMapping.write(compiled, CompiledMapping.hash(mapping), mappings);
+
+		SMRemapper remapper = new SMRemapper(NO_LOG);
+		remapper.setKeepSource(true);
+		remapper.loadMapping(mapping, compiled, false);
+		return remapper;
+	}
+
+	/**
+	 * A class with a signature, inner classes, local variable tables and an
+	 * invokedynamic whose handle names a mapped method
+	 */
+	private static byte[] outerClass() {
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "game/a",
+				"Ljava/lang/Object;Ljava/lang/Comparable<Lgame/a;>;", "java/lang/Object",
+				new String[] { "java/lang/Comparable" });
+		cw.visitSource("a.java", null);
+		cw.visitInnerClass("game/a$d", "game/a", "d", Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC);
+		cw.visitField(Opcodes.ACC_PRIVATE, "a", "I", null, null).visitEnd();
+		cw.visitField(Opcodes.ACC_PRIVATE, "f", "Ljava/util/List;", "Ljava/util/List<Lgame/a;>;", null).visitEnd();
+
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "b", "()I", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitFieldInsn(Opcodes.GETFIELD, "game/a", "a", "I");
+		mv.visitInsn(Opcodes.IRETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "c", "(Lgame/a;)V", null, null);
+		mv.visitCode();
+		Label start = new Label(), end = new Label();
+		mv.visitLabel(start);
+		mv.visitLineNumber(10, start);
+		mv.visitVarInsn(Opcodes.ALOAD, 1);
+		mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "game/a", "b", "()I", false);
+		mv.visitInsn(Opcodes.POP);
+		mv.visitInvokeDynamicInsn("run", "()Ljava/lang/Runnable;", METAFACTORY, Type.getType("()V"),
+				new Handle(Opcodes.H_INVOKESTATIC, "game/a", "e", "()V"), Type.getType("()V"));
+		mv.visitVarInsn(Opcodes.ASTORE, 2);
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitFieldInsn(Opcodes.GETFIELD, "game/a", "f", "Ljava/util/List;");
+		mv.visitVarInsn(Opcodes.ASTORE, 3);
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitLabel(end);
+		mv.visitLocalVariable("this", "Lgame/a;", null, start, end, 0);
+		mv.visitLocalVariable("other", "Lgame/a;", null, start, end, 1);
+		mv.visitLocalVariable("task", "Ljava/lang/Runnable;", null, start, end, 2);
+		mv.visitLocalVariable("list", "Ljava/util/List;", "Ljava/util/List<Lgame/a;>;", start, end, 3);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		mv = cw.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, "e", "()V", null, null);
+		mv.visitCode();
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	/**
+	 * A local class of game/a, declared in a mapped method
+	 */
+	private static byte[] innerClass() {
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(Opcodes.V1_8, Opcodes.ACC_SUPER, "game/a$d", null, "java/lang/Object", null);
+		cw.visitOuterClass("game/a", "c", "(Lgame/a;)V");
+		cw.visitInnerClass("game/a$d", "game/a", "d", Opcodes.ACC_STATIC);
+
+		MethodVisitor mv = cw.visitMethod(0, "<init>", "()V", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	/**
+	 * A class with a field and the given extra integer constants in its pool
+	 */
+	private static byte[] classWithConstants(int constants) {
+		ClassWriter cw = new ClassWriter(0);
+		cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "game/a", null, "java/lang/Object", null);
+		cw.visitField(Opcodes.ACC_PRIVATE, "a", "I", null, null).visitEnd();
+		for (int i = 0; i < constants; i++) {
+			cw.newConst(i + 1000000);
+		}
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	/**
+	 * Writes a class out again with ASM, so two classes that only differ in the
+	 * order of their constant pool come out the same, as verify mode does
+	 */
+	private static byte[] normalize(byte[] data) {
+		ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		new ClassReader(data).accept(writer, 0);
+		return writer.toByteArray();
+	}
+
+	private static Map<String, byte[]> readJar(File jar) throws IOException {
+		Map<String, byte[]> classes = new LinkedHashMap<>();
+		try (JarFile file = new JarFile(jar)) {
+			for (Enumeration<JarEntry> entries = file.entries(); entries.hasMoreElements();) {
+				JarEntry entry = entries.nextElement();
+				classes.put(entry.getName(), ByteStreams.toByteArray(file.getInputStream(entry)));
+			}
+		}
+		return classes;
+	}
+
+	@Test
+	public void rewriteMatchesAsm() throws Exception {
+		Map<String, byte[]> classes = new LinkedHashMap<>();
+		classes.put("game/a", outerClass());
+		classes.put("game/a$d", innerClass());
+		File input = new File(folder.getRoot(), "in.jar");
+		TestClasses.writeJar(input, classes);
+
+		File asm = new File(folder.getRoot(), "asm.jar"), rewritten = new File(folder.getRoot(), "rewritten.jar");
+		remapper("health").remap(input, asm);
+		SMRemapper remapper = remapper("health");
+		RemapMetrics metrics = new RemapMetrics();
+		remapper.setMetrics(metrics);
+		remapper.setPoolRewrite(true, false);
+		remapper.remap(input, rewritten);
+		assertEquals(2, metrics.getRewrittenClasses());
+
+		Map<String, byte[]> expected = readJar(asm), actual = readJar(rewritten);
+		assertEquals(expected.keySet(), actual.keySet());
+		assertNotNull(expected.get("game/Game.class"));
+		assertNotNull(expected.get("game/Game$Inner.class"));
+		for (String name : expected.keySet()) {
+			assertArrayEquals(name, normalize(expected.get(name)), normalize(actual.get(name)));
+		}
+	}
+
+	@Test
+	public void fieldHandleGoesThroughAsm() throws IOException {
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "game/a", null, "java/lang/Object", null);
+		cw.visitField(Opcodes.ACC_PRIVATE, "a", "I", null, null).visitEnd();
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "b", "()V", null, null);
+		mv.visitCode();
+		mv.visitLdcInsn(new Handle(Opcodes.H_GETFIELD, "game/a", "a", "I"));
+		mv.visitInsn(Opcodes.POP);
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+		cw.visitEnd();
+
+		assertNull(ConstantPoolRewriter.rewrite(new ClassReader(cw.toByteArray()), remapper("health")));
+	}
+
+	@Test
+	public void fullPoolGoesThroughAsm() throws IOException {
+		// Filled so the pool is exactly at its limit, the new name of the field does not fit
+		int constants = 0xFFFF - new ClassReader(classWithConstants(0)).getItemCount();
+		ClassReader reader = new ClassReader(classWithConstants(constants));
+		assertEquals(0xFFFF, reader.getItemCount());
+
+		SMRemapper remapper = remapper("health");
+		assertNull(ConstantPoolRewriter.rewrite(reader, remapper));
+		assertNotNull(ConstantPoolRewriter.rewrite(new ClassReader(classWithConstants(0)), remapper));
+	}
+
+	@Test
+	public void overLongNameGoesThroughAsm() throws IOException {
+		char[] name = new char[0x10000];
+		Arrays.fill(name, 'h');
+
+		assertNull(ConstantPoolRewriter.rewrite(new ClassReader(classWithConstants(0)),
+				remapper(new String(name))));
+	}
+}
@@ -0,0 +1,61 @@
+package com.error22.smt.remapper;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.jar.JarFile;
+import java.util.zip.ZipException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.ByteStreams;
+
+public class JarWriterTest {
+	private static final byte[] DATA = "data".getBytes(StandardCharsets.UTF_8);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void writtenAndCopiedEntriesCanBeRead() throws IOException {
+		File first = folder.newFile("first.jar"), second = folder.newFile("second.jar");
+		try (JarWriter out = new JarWriter(first)) {
+			out.write("a.txt", DATA);
+		}
+		try (FileInputStream in = new FileInputStream(first); JarWriter out = new JarWriter(second)) {
+			ZipIndex index = ZipIndex.read(in.getChannel());
+			out.copy(index, index.get("a.txt"));
+		}
+
+		try (JarFile jar = new JarFile(second)) {
+			assertArrayEquals(DATA, ByteStreams.toByteArray(jar.getInputStream(jar.getEntry("a.txt"))));
+		}
+	}
+
+	@Test(expected = ZipException.class)
+	public void duplicateWriteFails() throws IOException {
+		try (JarWriter out = new JarWriter(folder.newFile("out.jar"))) {
+			out.write("a.txt", DATA);
+			out.write("a.txt", DATA);
+		}
+	}
+
+	@Test(expected = ZipException.class)
+	public void copyOfAWrittenEntryFails() throws IOException {
+		File first = folder.newFile("first.jar");
+		try (JarWriter out = new JarWriter(first)) {
+			out.write("a.txt", DATA);
+		}
+		try (FileInputStream in = new FileInputStream(first);
+				JarWriter out = new JarWriter(folder.newFile("second.jar"))) {
+			ZipIndex index = ZipIndex.read(in.getChannel());
+			out.write("a.txt", DATA);
+			out.copy(index, index.get("a.txt"));
+		}
+	}
+}
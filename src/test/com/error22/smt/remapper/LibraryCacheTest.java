@@ -0,0 +1,99 @@
+package com.error22.smt.remapper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+public class LibraryCacheTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final Interner<String> interner = Interners.newStrongInterner();
+
+	private File library(String name, Map<String, ClassInfo> classes) throws IOException {
+		Map<String, byte[]> bytes = new LinkedHashMap<>();
+		bytes.put("lib/Base", TestClasses.simpleClass("lib/Base", "java/lang/Object"));
+		bytes.put("lib/Child", TestClasses.simpleClass("lib/Child", "lib/Base", "java/lang/Runnable"));
+		for (Map.Entry<String, byte[]> e : bytes.entrySet()) {
+			classes.put(e.getKey(), ClassInfo.read(new ClassReader(e.getValue()), interner));
+		}
+
+		File jar = new File(folder.getRoot(), name);
+		TestClasses.writeJar(jar, bytes);
+		return jar;
+	}
+
+	private static void assertSameInfo(ClassInfo expected, ClassInfo actual) {
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getSuperName(), actual.getSuperName());
+		assertArrayEquals(expected.getInterfaces(), actual.getInterfaces());
+		assertArrayEquals(expected.getMethodNames(), actual.getMethodNames());
+		assertArrayEquals(expected.getMethodDescs(), actual.getMethodDescs());
+		assertEquals(expected.getFieldAccess("a", "I"), actual.getFieldAccess("a", "I"));
+		assertEquals(expected.getMethodAccess("b", "()I"), actual.getMethodAccess("b", "()I"));
+	}
+
+	@Test
+	public void roundTrip() throws IOException {
+		Map<String, ClassInfo> classes = new LinkedHashMap<>();
+		File library = library("lib.jar", classes);
+		File cache = LibraryCache.getFile(folder.getRoot(), library);
+		LibraryCache.write(cache, library, classes);
+
+		Map<String, ClassInfo> read = LibraryCache.read(cache, library, interner);
+		assertNotNull(read);
+		assertEquals(classes.keySet(), read.keySet());
+		for (String name : classes.keySet()) {
+			assertSameInfo(classes.get(name), read.get(name));
+		}
+		assertEquals(Opcodes.ACC_PRIVATE, read.get("lib/Child").getFieldAccess("a", "I"));
+		assertEquals(-1, read.get("lib/Child").getMethodAccess("c", "()V"));
+	}
+
+	@Test
+	public void touchedLibraryWithSameContentsIsStillUsed() throws IOException {
+		Map<String, ClassInfo> classes = new LinkedHashMap<>();
+		File library = library("lib.jar", classes);
+		File cache = LibraryCache.getFile(folder.getRoot(), library);
+		LibraryCache.write(cache, library, classes);
+
+		library.setLastModified(library.lastModified() - 60000);
+		assertNotNull(LibraryCache.read(cache, library, interner));
+		// The new time was stored, so it is read without hashing next time
+		assertNotNull(LibraryCache.read(cache, library, interner));
+	}
+
+	@Test
+	public void changedLibraryIsNotUsed() throws IOException {
+		Map<String, ClassInfo> classes = new LinkedHashMap<>();
+		File library = library("lib.jar", classes);
+		File cache = LibraryCache.getFile(folder.getRoot(), library);
+		LibraryCache.write(cache, library, classes);
+
+		Map<String, byte[]> changed = new LinkedHashMap<>();
+		changed.put("lib/Other", TestClasses.simpleClass("lib/Other", "java/lang/Object"));
+		TestClasses.writeJar(library, changed);
+		assertNull(LibraryCache.read(cache, library, interner));
+	}
+
+	@Test
+	public void missingCacheIsNotUsed() throws IOException {
+		File library = library("lib.jar", new LinkedHashMap<String, ClassInfo>());
+		assertNull(LibraryCache.read(LibraryCache.getFile(folder.getRoot(), library), library, interner));
+	}
+}
@@ -0,0 +1,89 @@
+package com.error22.smt.remapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Interners;
+
+public class LibraryIndexTest {
+	// A class file header followed by a pool count with no pool behind it
+	private static final byte[] CORRUPT = { (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, 0, 0, 0, 0x34,
+			(byte) 0xFF, (byte) 0xFF };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final List<String> log = new ArrayList<>();
+	private final ILog collect = new ILog() {
+		@Override
+		public void log(String text) {
+			log.add(text);
+		}
+	};
+
+	private File library() throws IOException {
+		Map<String, byte[]> classes = new LinkedHashMap<>();
+		classes.put("lib/Base", TestClasses.simpleClass("lib/Base", "java/lang/Object"));
+		classes.put("lib/Broken", CORRUPT);
+		File jar = new File(folder.getRoot(), "lib.jar");
+		TestClasses.writeJar(jar, classes);
+		return jar;
+	}
+
+	private int failures() {
+		int failures = 0;
+		for (String line : log) {
+			if (line.startsWith("Failed to load lib class! lib/Broken")) {
+				failures++;
+			}
+		}
+		return failures;
+	}
+
+	@Test
+	public void corruptClassIsLoggedOnceAndMissing() throws IOException {
+		LibraryIndex index = new LibraryIndex(Interners.<String> newStrongInterner(), collect);
+		index.add(library());
+
+		assertNotNull(index.get("lib/Base"));
+		assertNull(index.get("lib/Broken"));
+		assertNull(index.get("lib/Broken"));
+		assertNull(index.get("lib/Missing"));
+		assertEquals(1, failures());
+	}
+
+	@Test
+	public void remapWithACorruptLazyClassFinishes() throws Exception {
+		Map<String, byte[]> classes = new LinkedHashMap<>();
+		classes.put("game/a", TestClasses.simpleClass("game/a", "lib/Broken"));
+		File input = new File(folder.getRoot(), "in.jar");
+		TestClasses.writeJar(input, classes);
+		File mapping = new File(folder.getRoot(), "map.smtmap");
+		Files.write(mapping.toPath(), "game.a -> game.Game {\n}\n".getBytes(StandardCharsets.UTF_8));
+
+		SMRemapper remapper = new SMRemapper(collect);
+		remapper.setLazyLibraries(true);
+		remapper.loadLib(library());
+		remapper.loadMapping(mapping, false);
+		File output = new File(folder.getRoot(), "out.jar");
+		remapper.remap(input, output);
+
+		assertTrue(output.isFile());
+		assertEquals(1, failures());
+	}
+}
@@ -0,0 +1,34 @@
+package com.error22.smt.remapper;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LongIntMapTest {
+	@Test
+	public void matchesAHashMapUnderPutsAndRemoves() {
+		LongIntMap map = new LongIntMap(16);
+		Map<Long, Integer> expected = new HashMap<>();
+		Random random = new Random(1);
+		for (int i = 0; i < 200000; i++) {
+			// Few distinct keys, so runs of colliding slots form and get removed from
+			long key = random.nextInt(2000);
+			if (random.nextBoolean()) {
+				Integer previous = expected.put(key, i);
+				assertEquals(previous == null ? -1 : previous.intValue(), map.put(key, i));
+			} else {
+				Integer previous = expected.remove(key);
+				assertEquals(previous == null ? -1 : previous.intValue(), map.remove(key));
+			}
+			assertEquals(expected.size(), map.size());
+		}
+		for (long key = 0; key < 2000; key++) {
+			Integer value = expected.get(key);
+			assertEquals(value == null ? -1 : value.intValue(), map.get(key));
+		}
+	}
+}
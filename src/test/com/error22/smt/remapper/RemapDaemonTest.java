@@ -0,0 +1,136 @@
+package com.error22.smt.remapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RemapDaemonTest {
+	private static final ILog NO_LOG = new ILog() {
+		@Override
+		public void log(String text) {
+		}
+	};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final List<String> daemonLog = Collections.synchronizedList(new ArrayList<String>());
+	private int port;
+	private File tokenFile;
+
+	@Before
+	public void startDaemon() throws Exception {
+		try (ServerSocket free = new ServerSocket(0)) {
+			port = free.getLocalPort();
+		}
+		tokenFile = new File(folder.getRoot(), "tokens/daemon.token");
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					new RemapDaemon(new ILog() {
+						@Override
+						public void log(String text) {
+							daemonLog.add(text);
+						}
+					}, tokenFile).serve(port);
+				} catch (IOException e) {
+					// The test waiting for the token fails
+				}
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+
+		for (int i = 0; i < 100 && !tokenFile.isFile(); i++) {
+			Thread.sleep(50);
+		}
+		assertTrue(tokenFile.isFile());
+	}
+
+	private String[] job(File output, String... options) throws IOException {
+		Map<String, byte[]> classes = new LinkedHashMap<>();
+		classes.put("game/a", TestClasses.simpleClass("game/a", "java/lang/Object"));
+		File dir = folder.newFolder();
+		File input = new File(dir, "in.jar");
+		TestClasses.writeJar(input, classes);
+		File mapping = new File(dir, "map.smtmap");
+		Files.write(mapping.toPath(), "game.a -> game.Game {\n}\n".getBytes(StandardCharsets.UTF_8));
+
+		List<String> args = new ArrayList<>();
+		Collections.addAll(args, input.getPath(), output.getPath(), mapping.getPath(), dir.getPath(), "false", "true");
+		Collections.addAll(args, options);
+		return args.toArray(new String[args.size()]);
+	}
+
+	@Test
+	public void tokenIsOnlyReadableByTheOwner() throws IOException {
+		if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+			assertEquals("rw-------",
+					PosixFilePermissions.toString(Files.getPosixFilePermissions(tokenFile.toPath())));
+		}
+	}
+
+	@Test
+	public void jobWithTheTokenRuns() throws IOException {
+		File output = new File(folder.getRoot(), "out.jar");
+		assertTrue(RemapDaemon.submit(port, tokenFile, job(output), NO_LOG));
+		assertTrue(output.isFile());
+	}
+
+	@Test
+	public void jobWithTheWrongTokenIsRejected() throws IOException {
+		File wrongToken = folder.newFile("wrong.token");
+		Files.write(wrongToken.toPath(), "0123".getBytes(StandardCharsets.UTF_8));
+		File output = new File(folder.getRoot(), "out.jar");
+		final List<String> clientLog = new ArrayList<>();
+		assertFalse(RemapDaemon.submit(port, wrongToken, job(output), new ILog() {
+			@Override
+			public void log(String text) {
+				clientLog.add(text);
+			}
+		}));
+		assertFalse(output.exists());
+		// Nothing about the daemon is given away to a client without the token
+		assertEquals(Collections.singletonList("Job failed! Wrong token"), clientLog);
+	}
+
+	@Test
+	public void onlyTheLastMappingsStayLoaded() throws IOException {
+		for (int i = 0; i < 5; i++) {
+			assertTrue(RemapDaemon.submit(port, tokenFile, job(new File(folder.getRoot(), i + ".jar")), NO_LOG));
+		}
+		int dropped = 0;
+		for (String line : daemonLog) {
+			if (line.startsWith("Dropping the mapping")) {
+				dropped++;
+			}
+		}
+		assertEquals(1, dropped);
+	}
+
+	@Test
+	public void invalidJobFails() throws IOException {
+		File output = new File(folder.getRoot(), "out.jar");
+		assertFalse(RemapDaemon.submit(port, tokenFile, job(output, "--threads=0"), NO_LOG));
+		assertFalse(output.exists());
+	}
+}
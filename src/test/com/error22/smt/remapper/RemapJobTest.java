@@ -0,0 +1,43 @@
+package com.error22.smt.remapper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class RemapJobTest {
+	private static RemapJob parse(String... options) {
+		String[] args = new String[6 + options.length];
+		String[] required = { "in.jar", "out.jar", "map.smtmap", "libs", "false", "true" };
+		System.arraycopy(required, 0, args, 0, required.length);
+		System.arraycopy(options, 0, args, required.length, options.length);
+		return RemapJob.parse(args);
+	}
+
+	@Test
+	public void threadsAreParsed() {
+		assertEquals(1, parse().threads);
+		assertEquals(4, parse("--threads=4").threads);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void zeroThreadsAreRejected() {
+		parse("--threads=0");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void threadsThatAreNotANumberAreRejected() {
+		parse("--threads=many");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownOptionIsRejected() {
+		parse("--fast");
+	}
+
+	@Test
+	public void argumentsParseBackToTheSameJob() {
+		RemapJob job = parse("--threads=3", "--incremental", "--verify-pool-rewrite");
+		assertArrayEquals(job.toArguments(), RemapJob.parse(job.toArguments()).toArguments());
+	}
+}
@@ -0,0 +1,162 @@
+package com.error22.smt.remapper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassReader;
+
+import com.google.common.io.ByteStreams;
+
+public class RemapManifestTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final ILog NO_LOG = new ILog() {
+		@Override
+		public void log(String text) {
+		}
+	};
+
+	private static RemapManifest.Entry entry(String outputName, String... queries) {
+		return new RemapManifest.Entry(RemapManifest.hashClass(outputName.getBytes()), outputName, queries,
+				RemapManifest.digest(Arrays.asList(queries)));
+	}
+
+	@Test
+	public void roundTrip() throws IOException {
+		RemapManifest manifest = new RemapManifest(true);
+		manifest.put("a", entry("Game", "Ta", "Mb|c|()V"));
+		manifest.put("b", entry("b"));
+		File file = RemapManifest.getFile(new File(folder.getRoot(), "out.jar"));
+		manifest.write(file);
+
+		RemapManifest read = RemapManifest.read(file, true);
+		assertNotNull(read);
+		for (String name : new String[] { "a", "b" }) {
+			RemapManifest.Entry expected = manifest.get(name), actual = read.get(name);
+			assertArrayEquals(expected.getInputHash(), actual.getInputHash());
+			assertEquals(expected.getOutputName(), actual.getOutputName());
+			assertArrayEquals(expected.getQueries(), actual.getQueries());
+			assertArrayEquals(expected.getDigest(), actual.getDigest());
+		}
+		assertNull(read.get("c"));
+	}
+
+	@Test
+	public void otherKeepSourceIsNotUsed() throws IOException {
+		RemapManifest manifest = new RemapManifest(true);
+		manifest.put("a", entry("Game"));
+		File file = RemapManifest.getFile(new File(folder.getRoot(), "out.jar"));
+		manifest.write(file);
+
+		assertNull(RemapManifest.read(file, false));
+	}
+
+	@Test
+	public void missingManifestIsNotUsed() throws IOException {
+		assertNull(RemapManifest.read(new File(folder.getRoot(), "missing.smtinc"), false));
+	}
+
+	@Test
+	public void manifestCanBeWrittenOverTheOneThatWasRead() throws IOException {
+		File file = RemapManifest.getFile(new File(folder.getRoot(), "out.jar"));
+		RemapManifest first = new RemapManifest(false);
+		first.put("a", entry("Game"));
+		first.write(file);
+
+		assertNotNull(RemapManifest.read(file, false));
+		RemapManifest second = new RemapManifest(false);
+		second.put("a", entry("World"));
+		second.write(file);
+
+		assertEquals("World", RemapManifest.read(file, false).get("a").getOutputName());
+	}
+
+	@Test
+	public void digestTellsMissingAnswersFromEmptyOnes() {
+		assertFalse(Arrays.equals(RemapManifest.digest(Collections.<String> singletonList(null)),
+				RemapManifest.digest(Collections.singletonList(""))));
+		assertFalse(Arrays.equals(RemapManifest.digest(Arrays.asList("ab", "c")),
+				RemapManifest.digest(Arrays.asList("a", "bc"))));
+	}
+
+	private File input() throws IOException {
+		Map<String, byte[]> classes = new LinkedHashMap<>();
+		classes.put("game/a", TestClasses.simpleClass("game/a", "java/lang/Object"));
+		classes.put("game/b", TestClasses.simpleClass("game/b", "game/a"));
+		classes.put("game/c", TestClasses.simpleClass("game/c", "java/lang/Object"));
+		File input = new File(folder.getRoot(), "in.jar");
+		TestClasses.writeJar(input, classes);
+		return input;
+	}
+
+	private File mapping(String newName) throws IOException {
+		File mapping = new File(folder.getRoot(), "map.smtmap");
+		String text = "game.a -> " + newName + " {\n}\ngame.c -> game.Other {\n}\n";
+		Files.write(mapping.toPath(), text.getBytes(StandardCharsets.UTF_8));
+		return mapping;
+	}
+
+	/**
+	 * Remaps the input incrementally into the output, as a new run would
+	 *
+	 * @return The number of classes reused from the previous output
+	 */
+	private static long remap(File input, File output, File mapping) throws Exception {
+		SMRemapper remapper = new SMRemapper(NO_LOG);
+		RemapMetrics metrics = new RemapMetrics();
+		remapper.setMetrics(metrics);
+		remapper.setIncremental(true);
+		remapper.loadMapping(mapping, false);
+		remapper.remap(input, output);
+		return metrics.getReusedClasses();
+	}
+
+	private static String superName(File jar, String name) throws IOException {
+		try (JarFile file = new JarFile(jar)) {
+			return new ClassReader(ByteStreams.toByteArray(file.getInputStream(file.getEntry(name + ".class"))))
+					.getSuperName();
+		}
+	}
+
+	@Test
+	public void unchangedClassesAreReused() throws Exception {
+		File input = input(), output = new File(folder.getRoot(), "out.jar"), mapping = mapping("game.Game");
+		assertEquals(0, remap(input, output, mapping));
+		byte[] first = Files.readAllBytes(output.toPath());
+
+		assertEquals(3, remap(input, output, mapping));
+		assertArrayEquals(first, Files.readAllBytes(output.toPath()));
+		assertEquals("game/Game", superName(output, "game/b"));
+	}
+
+	@Test
+	public void changedMappingAnswerRemapsTheClass() throws Exception {
+		File input = input(), output = new File(folder.getRoot(), "out.jar");
+		assertEquals(0, remap(input, output, mapping("game.Game")));
+
+		// game/b asked for the name of its superclass, only game/c asked nothing the new mapping answers differently
+		assertEquals(1, remap(input, output, mapping("game.World")));
+		assertEquals("game/World", superName(output, "game/b"));
+		assertEquals("java/lang/Object", superName(output, "game/World"));
+		try (JarFile file = new JarFile(output)) {
+			assertNull(file.getEntry("game/Game.class"));
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package com.error22.smt.remapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.ClassNode;
+
+import com.google.common.io.ByteStreams;
+
+public class SMRemapperTest {
+	private static final ILog NO_LOG = new ILog() {
+		@Override
+		public void log(String text) {
+		}
+	};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * A class annotated with a mapped annotation that has two values
+	 */
+	private static byte[] annotatedClass() {
+		ClassWriter cw = new ClassWriter(0);
+		cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "game/a", null, "java/lang/Object", null);
+		AnnotationVisitor av = cw.visitAnnotation("Lgame/b;", true);
+		av.visit("name", "x");
+		av.visitEnum("kind", "Lgame/c;", "FIRST");
+		av.visitEnd();
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	private File remap(Map<String, byte[]> classes, boolean streaming) throws Exception {
+		File input = new File(folder.getRoot(), "in.jar");
+		TestClasses.writeJar(input, classes);
+		File mapping = new File(folder.getRoot(), "map.smtmap");
+		String text = "game.a -> game.Game {\n}\ngame.b -> game.Anno {\n}\ngame.c -> game.Kind {\n}\n";
+		Files.write(mapping.toPath(), text.getBytes(StandardCharsets.UTF_8));
+
+		SMRemapper remapper = new SMRemapper(NO_LOG);
+		remapper.setStreaming(streaming);
+		remapper.loadMapping(mapping, false);
+		File output = new File(folder.getRoot(), streaming ? "streamed.jar" : "out.jar");
+		remapper.remap(input, output);
+		return output;
+	}
+
+	private static ClassNode readClass(File jar, String name) throws IOException {
+		try (JarFile file = new JarFile(jar)) {
+			ClassNode node = new ClassNode();
+			new ClassReader(ByteStreams.toByteArray(file.getInputStream(file.getEntry(name + ".class")))).accept(node,
+					0);
+			return node;
+		}
+	}
+
+	@Test
+	public void annotationsAreRemappedWithoutKeepingNodes() throws Exception {
+		Map<String, byte[]> classes = new LinkedHashMap<>();
+		classes.put("game/a", annotatedClass());
+		classes.put("game/d", TestClasses.simpleClass("game/d", "game/a"));
+
+		for (boolean streaming : new boolean[] { false, true }) {
+			ClassNode node = readClass(remap(classes, streaming), "game/Game");
+			assertEquals(1, node.visibleAnnotations.size());
+			AnnotationNode annotation = node.visibleAnnotations.get(0);
+			assertEquals("Lgame/Anno;", annotation.desc);
+			assertTrue(Arrays.deepEquals(new Object[] { "name", "x", "kind", new String[] { "Lgame/Kind;", "FIRST" } },
+					annotation.values.toArray()));
+		}
+	}
+
+	@Test
+	public void nestedClassesOfMappedClassesAreFoundByTheScan() throws Exception {
+		File mapping = new File(folder.getRoot(), "map.smtmap");
+		Files.write(mapping.toPath(), "game.a -> game.Game {\n}\n".getBytes(StandardCharsets.UTF_8));
+		SMRemapper remapper = new SMRemapper(NO_LOG);
+		remapper.loadMapping(mapping, false);
+
+		assertTrue(remapper.isMappedClass("game/a"));
+		assertTrue(remapper.isMappedClass("game/a$1$Local"));
+		assertFalse(remapper.isMappedClass("game/b$1"));
+		assertFalse(remapper.isMappedClass("not a $ class $ name"));
+		// The scan must not change what later lookups see
+		assertEquals("game/Game$1$Local", remapper.map("game/a$1$Local"));
+	}
+}
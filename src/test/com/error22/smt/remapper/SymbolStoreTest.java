@@ -0,0 +1,61 @@
+package com.error22.smt.remapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class SymbolStoreTest {
+	@Test(expected = IllegalArgumentException.class)
+	public void duplicateClassFailsWhenPut() {
+		MappingStore mappings = new SymbolStore();
+		mappings.putClass("a", "Game");
+		mappings.putClass("b", "Game");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void duplicateMethodFailsWhenPut() {
+		MappingStore mappings = new SymbolStore();
+		mappings.putMethod(new StringTriple("a", "b", "()V"), new StringTriple("Game", "tick", "()V"));
+		mappings.putMethod(new StringTriple("a", "c", "()V"), new StringTriple("Game", "tick", "()V"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void duplicateFailsWhenPutThroughTheInverse() {
+		MappingStore mappings = new SymbolStore();
+		mappings.putClass("a", "Game");
+		mappings.inverse().putClass("Player", "a");
+	}
+
+	@Test
+	public void overwrittenValueCanBeUsedAgain() {
+		MappingStore mappings = new SymbolStore();
+		mappings.putClass("a", "Game");
+		mappings.putClass("a", "World");
+		mappings.putClass("b", "Game");
+		assertEquals("World", mappings.mapClass("a"));
+		assertEquals("Game", mappings.mapClass("b"));
+		assertEquals("b", mappings.inverse().mapClass("Game"));
+	}
+
+	@Test
+	public void manyOverwrittenRulesAreIndexedBothWays() {
+		MappingStore mappings = new SymbolStore();
+		for (int i = 0; i < 100000; i++) {
+			mappings.putClass("a" + i, "Old" + i);
+		}
+		for (int i = 0; i < 100000; i++) {
+			mappings.putClass("a" + i, "New" + i);
+		}
+		// The old names are free again once nothing maps to them
+		mappings.putClass("b", "Old0");
+
+		assertEquals(100001, mappings.classCount());
+		for (int i = 0; i < 100000; i++) {
+			assertEquals("New" + i, mappings.mapClass("a" + i));
+			assertEquals("a" + i, mappings.inverse().mapClass("New" + i));
+		}
+		assertEquals("b", mappings.inverse().mapClass("Old0"));
+		assertNull(mappings.inverse().mapClass("Old1"));
+	}
+}
@@ -0,0 +1,74 @@
+package com.error22.smt.remapper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Builds the small classes and jars the tests remap
+ */
+final class TestClasses {
+	private TestClasses() {
+	}
+
+	/**
+	 * A class with a field and a method that returns it
+	 *
+	 * @param name
+	 *            The internal name of the class
+	 * @param superName
+	 *            The internal name of the superclass
+	 * @param interfaces
+	 *            The internal names of the interfaces
+	 * @return The class file
+	 */
+	static byte[] simpleClass(String name, String superName, String... interfaces) {
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, superName, interfaces);
+		cw.visitField(Opcodes.ACC_PRIVATE, "a", "I", null, null).visitEnd();
+
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false);
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "b", "()I", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitFieldInsn(Opcodes.GETFIELD, name, "a", "I");
+		mv.visitInsn(Opcodes.IRETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	/**
+	 * Writes a jar holding the given classes
+	 *
+	 * @param jar
+	 *            The jar to write
+	 * @param classes
+	 *            The class files by internal name
+	 */
+	static void writeJar(File jar, Map<String, byte[]> classes) throws IOException {
+		try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+			for (Map.Entry<String, byte[]> e : classes.entrySet()) {
+				out.putNextEntry(new JarEntry(e.getKey() + ".class"));
+				out.write(e.getValue());
+				out.closeEntry();
+			}
+		}
+	}
+}